@@ -2,6 +2,8 @@ package com.bateman.richard.evonn.lib.ann;
 
 import com.bateman.richard.io.TextFileHelper;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -32,7 +34,7 @@ public class ANNIO {
         {
             String[] lineSplit = lines.get(lineIndex++).split(LINE_DELIMITER);
             Node node = new Node(Integer.parseInt(lineSplit[0].replace(LABEL_NODE_ID, "")));
-            node.setNodeRole(Node.NodeRole.valueOf(lineSplit[1]));
+            node.setNodeRole(Node.NodeRole.valueOf(lineSplit[1].trim()));
             network.addNode(node);
         }
 
@@ -48,6 +50,91 @@ public class ANNIO {
         }
     }
 
+    /**
+     * Writes a compact binary representation of the network, for sending networks between processes.
+     * Nodes are written bias first, then inputs and outputs in order, then hidden nodes, so the network read back
+     * takes its inputs and produces its outputs in the same order.
+     * @param network
+     * @param output
+     * @throws IOException
+     */
+    public static void writeBinary(Network network, DataOutput output) throws IOException {
+        output.writeInt(network.getId());
+        output.writeInt(network.getNodeCount());
+        writeBinary(network.getNodeBias(), output);
+        for (Node node : network.getNodesInput())
+        {
+            writeBinary(node, output);
+        }
+        for (Node node : network.getNodesOutput())
+        {
+            writeBinary(node, output);
+        }
+        for (Node node : network.getNodesHidden())
+        {
+            writeBinary(node, output);
+        }
+
+        output.writeInt(network.getLinkCount());
+        for (Link link : network.getLinksSortedById())
+        {
+            output.writeInt(link.getId());
+            output.writeInt(link.getNodeIn().getId());
+            output.writeInt(link.getNodeOut().getId());
+            output.writeDouble(link.getWeight());
+        }
+    }
+
+    private static void writeBinary(Node node, DataOutput output) throws IOException {
+        output.writeInt(node.getId());
+        output.writeByte(node.getNodeRole().ordinal());
+    }
+
+    /**
+     * Reads a network written by {@link #writeBinary(Network, DataOutput)}.
+     * @param input
+     * @return
+     * @throws IOException
+     */
+    public static Network readBinary(DataInput input) throws IOException {
+        return new Network(input);
+    }
+
+    /**
+     * Fills an empty network from its binary representation.
+     * @param network
+     * @param input
+     * @throws IOException
+     */
+    public static void fromBinaryRepresentation(Network network, DataInput input) throws IOException
+    {
+        Node.NodeRole[] roles = Node.NodeRole.values();
+        network.setId(input.readInt());
+
+        int numNodes = input.readInt();
+        for (int n = 0; n < numNodes; n++)
+        {
+            Node node = new Node(input.readInt());
+            int role = input.readByte();
+            if (role < 0 || role >= roles.length) throw new IOException("Invalid node role: " + role);
+            node.setNodeRole(roles[role]);
+            network.addNode(node);
+        }
+
+        int numLinks = input.readInt();
+        for (int n = 0; n < numLinks; n++)
+        {
+            Link link = new Link(input.readInt());
+            Node nodeIn = network.getMapIdToAllNodes().get(input.readInt());
+            Node nodeOut = network.getMapIdToAllNodes().get(input.readInt());
+            if (nodeIn == null || nodeOut == null) throw new IOException("Link #" + link.getId() + " refers to a missing node.");
+            link.setNodeIn(nodeIn);
+            link.setNodeOut(nodeOut);
+            link.setWeight(input.readDouble());
+            network.addLink(link);
+        }
+    }
+
     /**
      * Generates a list of networks given a filepath.  Ignores all comments in the file.
      * @param filepath
@@ -61,18 +148,20 @@ public class ANNIO {
         while (index < allLines.size())
         {
             ArrayList<String> netLines = new ArrayList<>();
-            String line = allLines.get(index);
-            while (line != "")
+            while (index < allLines.size() && !allLines.get(index).isEmpty())
             {
+                String line = allLines.get(index);
                 if (!line.startsWith(FILE_REP_COMMENT))
                 {
                     netLines.add(line);
                 }
                 index++;
-                line = allLines.get(index);
             }
-            Network n = new Network(netLines);
-            allNets.add(n);
+            if (!netLines.isEmpty())
+            {
+                Network n = new Network(netLines);
+                allNets.add(n);
+            }
             index++;
         }
         return allNets;
@@ -0,0 +1,285 @@
+package com.bateman.richard.evonn.lib.ann;
+
+import com.bateman.richard.math.NNMath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A network bound to a shared {@link EvaluationPlan}, with its weights and activations held in primitive arrays.
+ * Obtain one through {@link Network#getCompiled()}, which recompiles it when the network's links of weight 0
+ * change, as those are pruned from the plan.  A compiled network holds activation state, so it must not be
+ * used by more than one thread at a time.
+ *
+ * There are two ways to evaluate it:
+ * >{@link #activate(double[], double[])} computes every node once per input, in plan order, so an acyclic network
+ *  produces its final output at once, and recurrent links read the previous call's activation.
+ * >{@link #step(double[], double[])} updates every node synchronously from the previous step's state, which is
+ *  held in two arrays swapped each step.  A signal advances one link per step, regardless of the order of the nodes,
+ *  which gives recurrent networks well-defined time steps for sequence tasks.
+ * {@link #activateBatch(double[], double[], int)} evaluates many samples the first way at once, for datasets.
+ */
+public class CompiledNetwork {
+    private final EvaluationPlan m_plan;
+    private final Link[] m_links;
+    private final Link[] m_disabledLinks;
+    private final double[] m_weights;
+    private final double[] m_activations;
+
+    /**
+     * The synchronous state of the previous and the next step.  Swapped after each step.
+     */
+    private double[] m_stateCurrent;
+    private double[] m_stateNext;
+
+    /**
+     * Scratch arrays for evaluating boxed input vectors.
+     */
+    private final double[] m_inputBuffer;
+    private final double[] m_outputBuffer;
+
+    /**
+     * The activations of every node for every sample of a batch, node by node.  Grown as needed.
+     */
+    private double[] m_batchActivations = new double[0];
+
+    /**
+     * Binds the plan to the links of the supplied network.
+     * @param plan
+     * @param network
+     */
+    CompiledNetwork(EvaluationPlan plan, Network network) {
+        m_plan = plan;
+        int[] linkIds = plan.getLinkIds();
+        m_links = new Link[linkIds.length];
+        for (int k = 0; k < linkIds.length; k++) {
+            m_links[k] = network.getMapIdToAllLinks().get(linkIds[k]);
+        }
+        int[] disabledLinkIds = plan.getDisabledLinkIds();
+        m_disabledLinks = new Link[disabledLinkIds.length];
+        for (int d = 0; d < disabledLinkIds.length; d++) {
+            m_disabledLinks[d] = network.getMapIdToAllLinks().get(disabledLinkIds[d]);
+        }
+        m_weights = new double[linkIds.length];
+        m_activations = new double[plan.getNodeCount()];
+        m_activations[0] = 1.0;
+        m_stateCurrent = new double[plan.getNodeCount()];
+        m_stateNext = new double[plan.getNodeCount()];
+        m_stateCurrent[0] = 1.0;
+        m_stateNext[0] = 1.0;
+        m_inputBuffer = new double[plan.getNumInputs()];
+        m_outputBuffer = new double[plan.getNumOutputs()];
+        refreshWeights();
+    }
+
+    /**
+     * The shared plan this network is evaluated with.
+     * @return
+     */
+    public EvaluationPlan getPlan() {
+        return m_plan;
+    }
+
+    /**
+     * The weight of each link, in the plan's CSR order.
+     * @return
+     */
+    public double[] getWeights() {
+        return m_weights;
+    }
+
+    /**
+     * The activation of each node, indexed by plan slot.
+     * @return
+     */
+    public double[] getActivations() {
+        return m_activations;
+    }
+
+    /**
+     * Re-reads the weights from the network's links.  Returns false if the plan no longer matches the weights
+     * (a link in the plan now has weight 0, or a disabled link no longer has), in which case the network should be
+     * recompiled; the outputs are still correct if only links in the plan became 0, but a disabled link is ignored.
+     * @return
+     */
+    public boolean refreshWeights() {
+        boolean matches = true;
+        for (int k = 0; k < m_links.length; k++) {
+            double weight = m_links[k].getWeight();
+            m_weights[k] = weight;
+            if (weight == 0) matches = false;
+        }
+        for (Link link : m_disabledLinks) {
+            if (link.getWeight() != 0) matches = false;
+        }
+        return matches;
+    }
+
+    /**
+     * Computes the output of the network for one input vector, computing every node exactly once.
+     * A link closing a recurrent loop reads its source's activation from the previous call.
+     * @param inputs Ordered array of inputs.  (The bias is always 1 and shouldn't be included in this array)
+     * @param outputs Receives the activation of each output node.
+     */
+    public void activate(double[] inputs, double[] outputs) {
+        double[] act = m_activations;
+        System.arraycopy(inputs, 0, act, 1, m_plan.getNumInputs());
+
+        int[] rowStart = m_plan.getRowStart();
+        int[] sources = m_plan.getSourceSlots();
+        double[] weights = m_weights;
+        int slot = m_plan.getFirstComputedSlot();
+        int computed = m_plan.getComputedCount();
+        for (int i = 0; i < computed; i++, slot++) {
+            double sum = 0;
+            for (int k = rowStart[i], end = rowStart[i + 1]; k < end; k++) {
+                sum += weights[k] * act[sources[k]];
+            }
+            act[slot] = NNMath.sigmoidal_0_1(sum);
+        }
+
+        int[] outputSlots = m_plan.getOutputSlots();
+        for (int o = 0; o < outputSlots.length; o++) {
+            outputs[o] = act[outputSlots[o]];
+        }
+    }
+
+    /**
+     * Computes the output of the network for one boxed input vector, as {@link #activate(double[], double[])} does.
+     * For callers still using {@link Network#computeActivation(ArrayList)}'s list-based interface.
+     * @param inputVector Ordered list of inputs.  (The bias is always 1 and shouldn't be included in this list)
+     * @return The activation of each output node.
+     */
+    public ArrayList<Double> activate(ArrayList<Double> inputVector) {
+        for (int i = 0; i < m_inputBuffer.length; i++) {
+            m_inputBuffer[i] = inputVector.get(i);
+        }
+        activate(m_inputBuffer, m_outputBuffer);
+        ArrayList<Double> activations = new ArrayList<>(m_outputBuffer.length);
+        for (double output : m_outputBuffer) {
+            activations.add(output);
+        }
+        return activations;
+    }
+
+    /**
+     * Computes the outputs of the network for a batch of input vectors, as {@link #activate(double[], double[])}
+     * would for each in turn.  The batch is laid out column by column, as a
+     * {@link com.bateman.richard.evonn.lib.data.Dataset} reads it:  each node is computed for every sample before
+     * the next node, in tight loops over contiguous arrays, which the JIT compiler can unroll and vectorize.
+     * A recurrent network's samples depend on each other, so they are computed one after another instead.
+     * The activations of the batch's last sample are not kept for the next call.
+     * @param inputs Input i of sample b at inputs[i * batchSize + b].  (The bias shouldn't be included)
+     * @param outputs Receives output o of sample b at outputs[o * batchSize + b].
+     * @param batchSize The number of samples.
+     */
+    public void activateBatch(double[] inputs, double[] outputs, int batchSize) {
+        int numInputs = m_plan.getNumInputs();
+        int[] outputSlots = m_plan.getOutputSlots();
+        if (m_plan.hasRecurrentLinks()) {
+            for (int b = 0; b < batchSize; b++) {
+                for (int i = 0; i < numInputs; i++) {
+                    m_inputBuffer[i] = inputs[i * batchSize + b];
+                }
+                activate(m_inputBuffer, m_outputBuffer);
+                for (int o = 0; o < outputSlots.length; o++) {
+                    outputs[o * batchSize + b] = m_outputBuffer[o];
+                }
+            }
+            return;
+        }
+
+        int needed = m_plan.getNodeCount() * batchSize;
+        if (m_batchActivations.length < needed) {
+            m_batchActivations = new double[needed];
+        }
+        double[] act = m_batchActivations;
+        Arrays.fill(act, 0, batchSize, 1.0);
+        System.arraycopy(inputs, 0, act, batchSize, numInputs * batchSize);
+
+        int[] rowStart = m_plan.getRowStart();
+        int[] sources = m_plan.getSourceSlots();
+        double[] weights = m_weights;
+        int slot = m_plan.getFirstComputedSlot();
+        int computed = m_plan.getComputedCount();
+        for (int i = 0; i < computed; i++, slot++) {
+            int row = slot * batchSize;
+            Arrays.fill(act, row, row + batchSize, 0.0);
+            for (int k = rowStart[i], end = rowStart[i + 1]; k < end; k++) {
+                double weight = weights[k];
+                int source = sources[k] * batchSize;
+                for (int b = 0; b < batchSize; b++) {
+                    act[row + b] += weight * act[source + b];
+                }
+            }
+            for (int b = 0; b < batchSize; b++) {
+                act[row + b] = NNMath.sigmoidal_0_1(act[row + b]);
+            }
+        }
+
+        for (int o = 0; o < outputSlots.length; o++) {
+            System.arraycopy(act, outputSlots[o] * batchSize, outputs, o * batchSize, batchSize);
+        }
+    }
+
+    /**
+     * Advances the synchronous state by one time step:  the inputs are presented, and every computed node is updated
+     * from the activations of the previous step.  Allocates nothing.
+     * @param inputs Ordered array of inputs.  (The bias is always 1 and shouldn't be included in this array)
+     * @param outputs Receives the activation of each output node after the step.
+     */
+    public void step(double[] inputs, double[] outputs) {
+        step(inputs, 0, outputs, 0);
+    }
+
+    /**
+     * Runs a whole sequence through the synchronous state, one step per input vector, without allocating.
+     * The state is not reset first; call {@link #reset()} to start a fresh sequence.
+     * @param inputs The input vectors of every step, back to back (steps * numInputs values).
+     * @param outputs Receives the output vectors of every step, back to back (steps * numOutputs values).
+     * @param steps The number of steps to run.
+     */
+    public void runSequence(double[] inputs, double[] outputs, int steps) {
+        int numInputs = m_plan.getNumInputs();
+        int numOutputs = m_plan.getNumOutputs();
+        for (int t = 0; t < steps; t++) {
+            step(inputs, t * numInputs, outputs, t * numOutputs);
+        }
+    }
+
+    /**
+     * Clears all activations and synchronous state (other than the bias), forgetting any recurrent state.
+     */
+    public void reset() {
+        Arrays.fill(m_activations, 1, m_activations.length, 0.0);
+        Arrays.fill(m_stateCurrent, 1, m_stateCurrent.length, 0.0);
+        Arrays.fill(m_stateNext, 1, m_stateNext.length, 0.0);
+    }
+
+    private void step(double[] inputs, int inputOffset, double[] outputs, int outputOffset) {
+        double[] current = m_stateCurrent;
+        double[] next = m_stateNext;
+        System.arraycopy(inputs, inputOffset, current, 1, m_plan.getNumInputs());
+
+        int[] rowStart = m_plan.getRowStart();
+        int[] sources = m_plan.getSourceSlots();
+        double[] weights = m_weights;
+        int slot = m_plan.getFirstComputedSlot();
+        int computed = m_plan.getComputedCount();
+        for (int i = 0; i < computed; i++, slot++) {
+            double sum = 0;
+            for (int k = rowStart[i], end = rowStart[i + 1]; k < end; k++) {
+                sum += weights[k] * current[sources[k]];
+            }
+            next[slot] = NNMath.sigmoidal_0_1(sum);
+        }
+
+        m_stateCurrent = next;
+        m_stateNext = current;
+
+        int[] outputSlots = m_plan.getOutputSlots();
+        for (int o = 0; o < outputSlots.length; o++) {
+            outputs[outputOffset + o] = next[outputSlots[o]];
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.bateman.richard.evonn.lib.ann;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * An immutable, weight-free description of how to evaluate a network topology.
+ * Every node is assigned a slot in a flat activation array:  slot 0 is the bias, slots 1..numInputs are the inputs
+ * (in input order), and the remaining slots are the computed (hidden and output) nodes in evaluation order.
+ * The incoming links of each computed node are stored in compressed sparse row (CSR) form.
+ * Plans are shared by all networks with the same {@link TopologyFingerprint}.
+ *
+ * The plan is pruned:  links disabled in the fingerprint, and hidden nodes with no enabled path to an output,
+ * are left out, as they cannot affect the outputs.  (Hidden nodes without enabled inputs are kept, as they still
+ * contribute a constant activation.)  Pruned nodes have no slot.
+ */
+public class EvaluationPlan {
+    private final TopologyFingerprint m_fingerprint;
+    private final int m_numInputs;
+    private final int m_nodeCount;
+    private final int[] m_nodeIds;
+    private final int[] m_outputSlots;
+    private final int[] m_rowStart;
+    private final int[] m_sourceSlots;
+    private final int[] m_linkIds;
+    private final int[] m_disabledLinkIds;
+    private final int m_prunedNodeCount;
+    private final boolean m_hasRecurrentLinks;
+
+    private static final int STATE_UNVISITED = 0;
+    private static final int STATE_ON_STACK = 1;
+    private static final int STATE_DONE = 2;
+
+    /**
+     * Compiles a plan from a topology fingerprint.
+     * @param fingerprint
+     */
+    public EvaluationPlan(TopologyFingerprint fingerprint) {
+        m_fingerprint = fingerprint;
+        int[] data = fingerprint.getData();
+
+        // Read the nodes.  Temporary indices are: bias, inputs, outputs, hidden.
+        int index = 0;
+        int biasId = data[index++];
+        m_numInputs = data[index++];
+        int inputStart = index;
+        index += m_numInputs;
+        int numOutputs = data[index++];
+        int outputStart = index;
+        index += numOutputs;
+        int numHidden = data[index++];
+        int hiddenStart = index;
+        index += numHidden;
+        int numLinks = data[index++];
+        int linkStart = index;
+
+        int maskStart = linkStart + numLinks * 3;
+
+        int tempCount = 1 + m_numInputs + numOutputs + numHidden;
+        int[] tempToId = new int[tempCount];
+        HashMap<Integer, Integer> idToTemp = new HashMap<>();
+        tempToId[0] = biasId;
+        System.arraycopy(data, inputStart, tempToId, 1, m_numInputs);
+        System.arraycopy(data, outputStart, tempToId, 1 + m_numInputs, numOutputs);
+        System.arraycopy(data, hiddenStart, tempToId, 1 + m_numInputs + numOutputs, numHidden);
+        for (int t = 0; t < tempCount; t++) {
+            idToTemp.put(tempToId[t], t);
+        }
+        int firstComputedTemp = 1 + m_numInputs;
+        int firstHiddenTemp = firstComputedTemp + numOutputs;
+
+        // Gather the enabled incoming links of every node, ordered by source node id.
+        ArrayList<ArrayList<int[]>> incoming = new ArrayList<>(tempCount);
+        for (int t = 0; t < tempCount; t++) {
+            incoming.add(new ArrayList<>());
+        }
+        int disabledCount = 0;
+        for (int l = 0; l < numLinks; l++) {
+            if ((data[maskStart + (l >>> 5)] & (1 << (l & 31))) != 0) {
+                disabledCount++;
+                continue;
+            }
+            int linkId = data[linkStart + l * 3];
+            int source = idToTemp.get(data[linkStart + l * 3 + 1]);
+            int target = idToTemp.get(data[linkStart + l * 3 + 2]);
+            incoming.get(target).add(new int[] { source, linkId });
+        }
+        m_disabledLinkIds = new int[disabledCount];
+        for (int l = 0, d = 0; l < numLinks; l++) {
+            if ((data[maskStart + (l >>> 5)] & (1 << (l & 31))) != 0) {
+                m_disabledLinkIds[d++] = data[linkStart + l * 3];
+            }
+        }
+        for (ArrayList<int[]> links : incoming) {
+            links.sort((a, b) -> Integer.compare(tempToId[a[0]], tempToId[b[0]]));
+        }
+
+        // Order the computed nodes with a depth-first, post-order walk backwards from the outputs.
+        // A link whose source is still on the stack closes a recurrent loop, and will read the source's
+        // activation from the previous pass.  Hidden nodes the walk never reaches cannot affect the outputs,
+        // and are pruned.
+        int[] state = new int[tempCount];
+        int[] order = new int[tempCount - firstComputedTemp];
+        int orderCount = 0;
+        boolean recurrent = false;
+        int[] stackNodes = new int[tempCount];
+        int[] stackCursors = new int[tempCount];
+        for (int root = firstComputedTemp; root < firstHiddenTemp; root++) {
+            if (state[root] != STATE_UNVISITED) continue;
+            int depth = 0;
+            stackNodes[0] = root;
+            stackCursors[0] = 0;
+            state[root] = STATE_ON_STACK;
+            while (depth >= 0) {
+                int node = stackNodes[depth];
+                ArrayList<int[]> links = incoming.get(node);
+                if (stackCursors[depth] < links.size()) {
+                    int source = links.get(stackCursors[depth]++)[0];
+                    if (source < firstComputedTemp) continue;
+                    if (state[source] == STATE_ON_STACK) {
+                        recurrent = true;
+                    }
+                    else if (state[source] == STATE_UNVISITED) {
+                        depth++;
+                        stackNodes[depth] = source;
+                        stackCursors[depth] = 0;
+                        state[source] = STATE_ON_STACK;
+                    }
+                }
+                else {
+                    state[node] = STATE_DONE;
+                    order[orderCount++] = node;
+                    depth--;
+                }
+            }
+        }
+        m_hasRecurrentLinks = recurrent;
+        m_nodeCount = firstComputedTemp + orderCount;
+        m_prunedNodeCount = tempCount - m_nodeCount;
+
+        // Assign slots and build the CSR arrays.
+        int[] tempToSlot = new int[tempCount];
+        m_nodeIds = new int[m_nodeCount];
+        for (int t = 0; t < firstComputedTemp; t++) {
+            tempToSlot[t] = t;
+            m_nodeIds[t] = tempToId[t];
+        }
+        for (int o = 0; o < orderCount; o++) {
+            tempToSlot[order[o]] = firstComputedTemp + o;
+            m_nodeIds[firstComputedTemp + o] = tempToId[order[o]];
+        }
+
+        m_outputSlots = new int[numOutputs];
+        for (int o = 0; o < numOutputs; o++) {
+            m_outputSlots[o] = tempToSlot[1 + m_numInputs + o];
+        }
+
+        int csrSize = 0;
+        for (int o = 0; o < orderCount; o++) {
+            csrSize += incoming.get(order[o]).size();
+        }
+        m_rowStart = new int[orderCount + 1];
+        m_sourceSlots = new int[csrSize];
+        m_linkIds = new int[csrSize];
+        int k = 0;
+        for (int o = 0; o < orderCount; o++) {
+            m_rowStart[o] = k;
+            for (int[] link : incoming.get(order[o])) {
+                m_sourceSlots[k] = tempToSlot[link[0]];
+                m_linkIds[k] = link[1];
+                k++;
+            }
+        }
+        m_rowStart[orderCount] = k;
+    }
+
+    /**
+     * The fingerprint of the topology this plan was compiled from.
+     * @return
+     */
+    public TopologyFingerprint getFingerprint() {
+        return m_fingerprint;
+    }
+
+    /**
+     * The number of input nodes (excluding the bias).
+     * @return
+     */
+    public int getNumInputs() {
+        return m_numInputs;
+    }
+
+    /**
+     * The number of output nodes.
+     * @return
+     */
+    public int getNumOutputs() {
+        return m_outputSlots.length;
+    }
+
+    /**
+     * The total number of activation slots (one per node).
+     * @return
+     */
+    public int getNodeCount() {
+        return m_nodeCount;
+    }
+
+    /**
+     * The first slot holding a computed (hidden or output) node.  Every slot before it is the bias or an input.
+     * @return
+     */
+    public int getFirstComputedSlot() {
+        return 1 + m_numInputs;
+    }
+
+    /**
+     * The number of computed (hidden or output) nodes.
+     * @return
+     */
+    public int getComputedCount() {
+        return m_rowStart.length - 1;
+    }
+
+    /**
+     * The number of links used during evaluation.
+     * @return
+     */
+    public int getLinkCount() {
+        return m_linkIds.length;
+    }
+
+    /**
+     * The ids of the links disabled in the fingerprint (those of weight 0 when compiled).  A network evaluated
+     * with this plan must be recompiled if any of them is re-enabled.  Callers must not modify the returned array.
+     * @return
+     */
+    public int[] getDisabledLinkIds() {
+        return m_disabledLinkIds;
+    }
+
+    /**
+     * The number of hidden nodes left out because they have no enabled path to an output.
+     * @return
+     */
+    public int getPrunedNodeCount() {
+        return m_prunedNodeCount;
+    }
+
+    /**
+     * True if some link reads an activation from the previous pass (i.e., the topology contains a cycle).
+     * @return
+     */
+    public boolean hasRecurrentLinks() {
+        return m_hasRecurrentLinks;
+    }
+
+    /**
+     * Node id stored in each slot.  Callers must not modify the returned array.
+     * @return
+     */
+    public int[] getNodeIds() {
+        return m_nodeIds;
+    }
+
+    /**
+     * Slot of each output node (in output order).  Callers must not modify the returned array.
+     * @return
+     */
+    public int[] getOutputSlots() {
+        return m_outputSlots;
+    }
+
+    /**
+     * For computed node i (slot getFirstComputedSlot() + i), its incoming links occupy
+     * [rowStart[i], rowStart[i + 1]) of the source slot and link id arrays.  Callers must not modify the returned array.
+     * @return
+     */
+    public int[] getRowStart() {
+        return m_rowStart;
+    }
+
+    /**
+     * The source slot of each link, in CSR order.  Callers must not modify the returned array.
+     * @return
+     */
+    public int[] getSourceSlots() {
+        return m_sourceSlots;
+    }
+
+    /**
+     * The id of each link, in CSR order.  Callers must not modify the returned array.
+     * @return
+     */
+    public int[] getLinkIds() {
+        return m_linkIds;
+    }
+
+    /**
+     * An estimate of the memory held by this plan, in array elements.  Used by the cache to bound its size.
+     * @return
+     */
+    public long getCost() {
+        return m_fingerprint.getLength() + m_nodeIds.length + m_outputSlots.length + m_rowStart.length +
+                m_sourceSlots.length + m_linkIds.length + m_disabledLinkIds.length;
+    }
+
+    @Override
+    public String toString() {
+        return "Plan: nodes=" + m_nodeCount + ", links=" + m_linkIds.length + ", pruned nodes=" + m_prunedNodeCount +
+                ", disabled links=" + m_disabledLinkIds.length + ", recurrent=" + m_hasRecurrentLinks +
+                ", order=" + Arrays.toString(m_nodeIds);
+    }
+}
@@ -0,0 +1,162 @@
+package com.bateman.richard.evonn.lib.ann;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of evaluation plans keyed by topology fingerprint.
+ * Agents within a pool share a topology, so the plan is usually compiled once and reused by every agent
+ * (and every generation) until a topology mutation produces a new fingerprint.
+ * The cache is bounded both by entry count and by the total cost (in array elements) of the cached plans.
+ * All methods are thread-safe.
+ */
+public final class EvaluationPlanCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final long DEFAULT_MAX_COST = 8_000_000;
+
+    private final LinkedHashMap<TopologyFingerprint, EvaluationPlan> m_plans = new LinkedHashMap<>(16, 0.75f, true);
+    private int m_maxEntries;
+    private long m_maxCost;
+    private long m_totalCost;
+
+    private long m_hitCount;
+    private long m_missCount;
+    private long m_evictionCount;
+
+    /**
+     * Creates a cache with the default limits.
+     */
+    public EvaluationPlanCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_COST);
+    }
+
+    /**
+     * Creates a cache with the supplied limits.
+     * @param maxEntries The maximum number of plans to hold.
+     * @param maxCost The maximum combined cost (see {@link EvaluationPlan#getCost()}) of all plans held.
+     */
+    public EvaluationPlanCache(int maxEntries, long maxCost) {
+        setLimits(maxEntries, maxCost);
+    }
+
+    /**
+     * Changes the limits of the cache, evicting plans if necessary.
+     * @param maxEntries
+     * @param maxCost
+     */
+    public synchronized void setLimits(int maxEntries, long maxCost) {
+        if (maxEntries < 1) throw new IllegalArgumentException("The cache must hold at least one entry.");
+        m_maxEntries = maxEntries;
+        m_maxCost = maxCost;
+        evictIfNecessary();
+    }
+
+    /**
+     * Returns the plan for the supplied fingerprint, compiling (and caching) it if necessary.
+     * @param fingerprint
+     * @return
+     */
+    public EvaluationPlan getPlan(TopologyFingerprint fingerprint) {
+        synchronized (this) {
+            EvaluationPlan plan = m_plans.get(fingerprint);
+            if (plan != null) {
+                m_hitCount++;
+                return plan;
+            }
+            m_missCount++;
+        }
+
+        // Compile outside of the lock, so other threads are not held up.
+        EvaluationPlan compiled = new EvaluationPlan(fingerprint);
+
+        synchronized (this) {
+            // Another thread may have compiled the same plan in the meantime; prefer the cached one.
+            EvaluationPlan existing = m_plans.get(fingerprint);
+            if (existing != null) {
+                return existing;
+            }
+            m_plans.put(fingerprint, compiled);
+            m_totalCost += compiled.getCost();
+            evictIfNecessary();
+            return compiled;
+        }
+    }
+
+    /**
+     * Removes all plans from the cache.  Statistics are preserved.
+     */
+    public synchronized void clear() {
+        m_plans.clear();
+        m_totalCost = 0;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public synchronized void resetStatistics() {
+        m_hitCount = 0;
+        m_missCount = 0;
+        m_evictionCount = 0;
+    }
+
+    /**
+     * The number of plans currently held.
+     * @return
+     */
+    public synchronized int getSize() {
+        return m_plans.size();
+    }
+
+    /**
+     * The combined cost of all plans currently held.
+     * @return
+     */
+    public synchronized long getTotalCost() {
+        return m_totalCost;
+    }
+
+    /**
+     * The number of requests answered from the cache.
+     * @return
+     */
+    public synchronized long getHitCount() {
+        return m_hitCount;
+    }
+
+    /**
+     * The number of requests that required a plan to be compiled.
+     * @return
+     */
+    public synchronized long getMissCount() {
+        return m_missCount;
+    }
+
+    /**
+     * The number of plans evicted to stay within the limits.
+     * @return
+     */
+    public synchronized long getEvictionCount() {
+        return m_evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Plan cache: size=" + m_plans.size() + ", cost=" + m_totalCost + ", hits=" + m_hitCount +
+                ", misses=" + m_missCount + ", evictions=" + m_evictionCount;
+    }
+
+    /**
+     * Evicts least-recently-used plans until the cache is within its limits.
+     * The most recently added plan is always kept, even if it alone exceeds the cost limit.
+     */
+    private void evictIfNecessary() {
+        Iterator<Map.Entry<TopologyFingerprint, EvaluationPlan>> it = m_plans.entrySet().iterator();
+        while (m_plans.size() > 1 && (m_plans.size() > m_maxEntries || m_totalCost > m_maxCost) && it.hasNext()) {
+            EvaluationPlan evicted = it.next().getValue();
+            it.remove();
+            m_totalCost -= evicted.getCost();
+            m_evictionCount++;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.bateman.richard.evonn.lib.ann;
+
+/**
+ * A snapshot of a network's link genes (innovation id and weight), sorted by innovation id in primitive arrays.
+ * Because ids come from the {@link InnovationRegistry}, two sequences can be compared gene by gene with a single
+ * linear merge.
+ */
+public class GeneSequence {
+    private final int[] m_ids;
+    private final double[] m_weights;
+
+    private GeneSequence(int[] ids, double[] weights) {
+        m_ids = ids;
+        m_weights = weights;
+    }
+
+    /**
+     * Takes a snapshot of the supplied network's genes.
+     * @param network
+     * @return
+     */
+    public static GeneSequence of(Network network) {
+        Link[] links = network.getLinksSortedById();
+        int[] ids = new int[links.length];
+        double[] weights = new double[links.length];
+        for (int l = 0; l < links.length; l++) {
+            ids[l] = links[l].getId();
+            weights[l] = links[l].getWeight();
+        }
+        return new GeneSequence(ids, weights);
+    }
+
+    /**
+     * The number of genes.
+     * @return
+     */
+    public int size() {
+        return m_ids.length;
+    }
+
+    /**
+     * The NEAT compatibility distance between this sequence and the supplied network:
+     * (excessCoefficient * E + disjointCoefficient * D) / N + weightCoefficient * W,
+     * where E and D count the excess and disjoint genes, N is the size of the larger genome,
+     * and W is the mean absolute weight difference of the matching genes.
+     * Computed with a single merge over both id-sorted gene arrays.
+     * @param network
+     * @param excessCoefficient
+     * @param disjointCoefficient
+     * @param weightCoefficient
+     * @return
+     */
+    public double distanceTo(Network network, double excessCoefficient, double disjointCoefficient, double weightCoefficient) {
+        Link[] links = network.getLinksSortedById();
+        int i = 0;
+        int j = 0;
+        int matching = 0;
+        int disjoint = 0;
+        double weightDifference = 0;
+        while (i < m_ids.length && j < links.length) {
+            int id = m_ids[i];
+            int otherId = links[j].getId();
+            if (id == otherId) {
+                weightDifference += Math.abs(m_weights[i] - links[j].getWeight());
+                matching++;
+                i++;
+                j++;
+            }
+            else if (id < otherId) {
+                disjoint++;
+                i++;
+            }
+            else {
+                disjoint++;
+                j++;
+            }
+        }
+        int excess = (m_ids.length - i) + (links.length - j);
+        int n = Math.max(1, Math.max(m_ids.length, links.length));
+
+        double distance = (excessCoefficient * excess + disjointCoefficient * disjoint) / n;
+        if (matching > 0) {
+            distance += weightCoefficient * (weightDifference / matching);
+        }
+        return distance;
+    }
+}
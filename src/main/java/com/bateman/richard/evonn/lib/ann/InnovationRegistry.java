@@ -0,0 +1,113 @@
+package com.bateman.richard.evonn.lib.ann;
+
+import java.util.HashMap;
+
+/**
+ * Hands out ids for structural mutations, so that the same mutation gets the same id in every network
+ * (NEAT-style innovation numbers).  A link between the same two nodes, or a node splitting the same link,
+ * receives the same id for the rest of the generation, no matter which network it appears in.
+ * Since networks then agree on what each link id means, their links can be matched by a sorted merge
+ * on id, even when their topologies differ.  All methods are thread-safe.
+ */
+public class InnovationRegistry {
+    private final HashMap<Long, Integer> m_linkInnovations = new HashMap<>();
+    private final HashMap<Integer, Integer> m_splitNodeInnovations = new HashMap<>();
+    private int m_nextLinkId;
+    private int m_nextNodeId;
+    private int m_idRangeEnd = Integer.MAX_VALUE;
+
+    /**
+     * Returns the id of the link from the source node to the target node, creating a new id if this is the first
+     * time the link has been requested this generation.
+     * @param sourceNodeId
+     * @param targetNodeId
+     * @return
+     */
+    public synchronized int getLinkInnovation(int sourceNodeId, int targetNodeId) {
+        long key = ((long) sourceNodeId << 32) | (targetNodeId & 0xFFFFFFFFL);
+        Integer id = m_linkInnovations.get(key);
+        if (id == null) {
+            id = m_nextLinkId++;
+            m_linkInnovations.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the hidden node created by splitting the supplied link, creating a new id if this is the
+     * first time the link has been split this generation.
+     * @param splitLinkId
+     * @return
+     */
+    public synchronized int getSplitNodeInnovation(int splitLinkId) {
+        Integer id = m_splitNodeInnovations.get(splitLinkId);
+        if (id == null) {
+            id = m_nextNodeId++;
+            m_splitNodeInnovations.put(splitLinkId, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns a node id that has never been handed out before.
+     * @return
+     */
+    public synchronized int getNewNodeId() {
+        return m_nextNodeId++;
+    }
+
+    /**
+     * Makes sure ids below the supplied values are never handed out.  Used for ids assigned outside the registry,
+     * such as the input and output nodes of a minimal network, or networks loaded from file.
+     * @param linkIdLimit
+     * @param nodeIdLimit
+     */
+    public synchronized void reserveIds(int linkIdLimit, int nodeIdLimit) {
+        // Ids beyond the range belong to another process (see setIdRange), and must not move this one's ids there.
+        if (linkIdLimit <= m_idRangeEnd) {
+            m_nextLinkId = Math.max(m_nextLinkId, linkIdLimit);
+        }
+        if (nodeIdLimit <= m_idRangeEnd) {
+            m_nextNodeId = Math.max(m_nextNodeId, nodeIdLimit);
+        }
+    }
+
+    /**
+     * Restricts new ids to the range [firstId, endId), so that several processes evolving networks independently
+     * (such as the islands of an island model) never hand out the same id for different mutations.
+     * Ids below firstId, such as those of the minimal network, remain shared by all processes.
+     * @param firstId
+     * @param endId
+     */
+    public synchronized void setIdRange(int firstId, int endId) {
+        if (firstId >= endId) throw new IllegalArgumentException("The id range is empty.");
+        m_nextLinkId = Math.max(m_nextLinkId, firstId);
+        m_nextNodeId = Math.max(m_nextNodeId, firstId);
+        m_idRangeEnd = endId;
+    }
+
+    /**
+     * Replaces this registry's ids, id range and innovations with a copy of another registry's.  Package-private for
+     * tests, which save and restore the shared registry around changing its id range.
+     * @param other
+     */
+    synchronized void copyFrom(InnovationRegistry other) {
+        synchronized (other) {
+            m_linkInnovations.clear();
+            m_linkInnovations.putAll(other.m_linkInnovations);
+            m_splitNodeInnovations.clear();
+            m_splitNodeInnovations.putAll(other.m_splitNodeInnovations);
+            m_nextLinkId = other.m_nextLinkId;
+            m_nextNodeId = other.m_nextNodeId;
+            m_idRangeEnd = other.m_idRangeEnd;
+        }
+    }
+
+    /**
+     * Starts a new generation:  mutations from now on receive new ids, even if they repeat an earlier generation's.
+     */
+    public synchronized void beginGeneration() {
+        m_linkInnovations.clear();
+        m_splitNodeInnovations.clear();
+    }
+}
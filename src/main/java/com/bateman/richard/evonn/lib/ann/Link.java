@@ -8,6 +8,7 @@ public class Link {
     private Node m_nodeIn;
     private Node m_nodeOut;
     private double m_weight;
+    private double m_stepSize;
 
     /**
      * Creates a new link with the supplied id.
@@ -63,6 +64,19 @@ public class Link {
         m_weight = weight;
     }
 
+    /**
+     * This link's own mutation step size (standard deviation), for self-adaptive weight mutation
+     * (see {@link NetworkMutator#mutateWeightsGaussian}).  0 until the link's weight is first mutated that way.
+     * @return
+     */
+    public double getStepSize() {
+        return m_stepSize;
+    }
+
+    public void setStepSize(double stepSize) {
+        m_stepSize = stepSize;
+    }
+
     /**
      * Returns a copy of the link (shallow copies of the connecting nodes).
      * The id is also copied.
@@ -73,6 +87,7 @@ public class Link {
         copy.m_nodeIn = m_nodeIn;
         copy.m_nodeOut = m_nodeOut;
         copy.m_weight = m_weight;
+        copy.m_stepSize = m_stepSize;
 
         return copy;
     }
@@ -2,16 +2,19 @@ package com.bateman.richard.evonn.lib.ann;
 
 import com.bateman.richard.math.NNMath;
 import com.bateman.richard.math.RNG;
-import sun.plugin.dom.exception.InvalidStateException;
 
+import java.io.DataInput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Representation of a neural network.
  */
-public class Network {
+public final class Network {
     public static final String NODE_NAME_PREFIX_INPUT = "Input";
     public static final String NODE_NAME_PREFIX_BIAS = "Bias";
     public static final String NODE_NAME_PREFIX_HIDDEN = "Hidden";
@@ -19,7 +22,9 @@ public class Network {
 
     public static final double LINK_WEIGHT_INIT_MIN = -1;
     public static final double LINK_WEIGHT_INIT_MAX = +1;
-    private static int s_networkUniqueIdGenerator = 0;
+    private static final AtomicInteger s_networkUniqueIdGenerator = new AtomicInteger();
+    private static final EvaluationPlanCache s_evaluationPlanCache = new EvaluationPlanCache();
+    private static final InnovationRegistry s_innovationRegistry = new InnovationRegistry();
     private int m_id;
 
     /**
@@ -73,6 +78,27 @@ public class Network {
      */
     private int m_idGeneratorLink;
 
+    /**
+     * The fingerprint of the current topology.  Null until requested, and cleared whenever the topology changes.
+     */
+    private TopologyFingerprint m_topologyFingerprint;
+
+    /**
+     * The compiled form of this network.  Null until requested, and cleared whenever the topology changes.
+     */
+    private CompiledNetwork m_compiled;
+
+    /**
+     * All links, ordered by id.  Null until requested, and cleared whenever the topology changes.
+     */
+    private Link[] m_linksSortedById;
+
+    /**
+     * The most nodes and links the mutator may grow this network to, or 0 for no limit.
+     */
+    private int m_maxNodeCount;
+    private int m_maxLinkCount;
+
     /// <summary>
     /// Create an empty network.
     /// </summary>
@@ -81,8 +107,7 @@ public class Network {
      * Create an empty network
      */
     public Network(){
-        m_id = s_networkUniqueIdGenerator;
-        s_networkUniqueIdGenerator++;
+        m_id = s_networkUniqueIdGenerator.getAndIncrement();
     }
 
     /**
@@ -91,7 +116,32 @@ public class Network {
      */
     public Network(ArrayList<String> lines) {
         ANNIO.fromStringRepresentation(this, lines);
-        s_networkUniqueIdGenerator++;
+        s_networkUniqueIdGenerator.incrementAndGet();
+        reserveLoadedIds();
+    }
+
+    /**
+     * Creates a network from a binary representation (see {@link ANNIO#writeBinary(Network, DataOutput)}).
+     * @param input
+     * @throws IOException
+     */
+    public Network(DataInput input) throws IOException {
+        ANNIO.fromBinaryRepresentation(this, input);
+        s_networkUniqueIdGenerator.incrementAndGet();
+        reserveLoadedIds();
+    }
+
+    /**
+     * Makes sure ids generated from now on differ from those of the nodes and links just loaded.
+     */
+    private void reserveLoadedIds() {
+        for (Node n : m_mapIdToAllNodes.values()) {
+            m_idGeneratorNode = Math.max(m_idGeneratorNode, n.getId() + 1);
+        }
+        for (Link l : m_mapIdToAllLinks.values()) {
+            m_idGeneratorLink = Math.max(m_idGeneratorLink, l.getId() + 1);
+        }
+        s_innovationRegistry.reserveIds(m_idGeneratorLink, m_idGeneratorNode);
     }
 
     /**
@@ -114,6 +164,23 @@ public class Network {
 
     public void setId(int id) {m_id = id;}
 
+    /**
+     * The cache of evaluation plans shared by all networks.
+     * @return
+     */
+    public static EvaluationPlanCache getEvaluationPlanCache() {
+        return s_evaluationPlanCache;
+    }
+
+    /**
+     * The registry of innovation numbers shared by all networks.  Links and split nodes receive their ids from it,
+     * so the same structural mutation has the same id in every network.
+     * @return
+     */
+    public static InnovationRegistry getInnovationRegistry() {
+        return s_innovationRegistry;
+    }
+
     /**
      * Dictionary of all nodes (mapped by id)
      * @return
@@ -189,11 +256,31 @@ public class Network {
         return m_mapIdToAllLinks.size();
     }
 
+    /**
+     * Limits the size {@link NetworkMutator} may grow this network to.  The network itself may already be larger;
+     * it is then never grown further, but may still shrink.  Copies of the network inherit the limits.
+     * @param maxNodeCount The most nodes (including the inputs, bias and outputs), or 0 for no limit.
+     * @param maxLinkCount The most links (including those of weight 0), or 0 for no limit.
+     */
+    public void setSizeLimits(int maxNodeCount, int maxLinkCount) {
+        m_maxNodeCount = maxNodeCount;
+        m_maxLinkCount = maxLinkCount;
+    }
+
+    public int getMaxNodeCount() {
+        return m_maxNodeCount;
+    }
+
+    public int getMaxLinkCount() {
+        return m_maxLinkCount;
+    }
+
     /**
      * Adds this node to the network.
      * @param n
      */
     public void addNode(Node n) {
+        invalidateTopology();
         m_mapIdToAllNodes.put(n.getId(), n);
         switch(n.getNodeRole())
         {
@@ -221,6 +308,7 @@ public class Network {
      * @param link
      */
     public void addLink(Link link) {
+        invalidateTopology();
         m_mapIdToAllLinks.put(link.getId(), link);
         m_mapIdToAllNodes.get(link.getNodeIn().getId()).getLinksOutgoing().put(link.getNodeOut().getId(), link);
         m_mapIdToAllNodes.get(link.getNodeOut().getId()).getLinksIncoming().put(link.getNodeIn().getId(), link);
@@ -231,6 +319,7 @@ public class Network {
      * @param n
      */
     public void removeHiddenNode(Node n){
+        invalidateTopology();
         m_mapIdToAllNodes.remove(n.getId());
         m_nodesHidden.remove(n);
     }
@@ -240,22 +329,34 @@ public class Network {
      * @param link
      */
     public void removeLink(Link link) {
+        invalidateTopology();
         m_mapIdToAllLinks.remove(link.getId());
     }
 
-    /// <summary>
-    /// Computes the activation for the given input vector.
-    /// </summary>
-    /// <param name="inputVector">Ordered array of inputs.  (Bias is always 1)</param>
-
     /**
      * Computes the activation for the given input vector.
+     * Evaluates the compiled plan, which computes every node exactly once per input, so the cost is O(links) no matter
+     * how many paths lead to a node.  Acyclic networks (the common case) are evaluated in topological order with no
+     * recurrent-loop bookkeeping; in recurrent networks, a link closing a loop reads its source's activation from
+     * the previous call.  The node objects' activations are not updated.
      * @param inputVector Ordered array of inputs.  (Bias input is always 1 and shouldn't be included in this array)
      * @return
      */
     public ArrayList<Double> computeActivation(ArrayList<Double> inputVector){
+        return getCompiled().activate(inputVector);
+    }
+
+    /**
+     * Computes the activation for the given input vector by walking backwards from each output node.
+     * This was the original evaluator, and is kept as a reference to check the compiled evaluator against.
+     * Each output starts a fresh walk, so a node reachable along several paths is recomputed once per path
+     * (exponential in the worst case), and in recurrent networks the result depends on the order nodes are visited.
+     * @param inputVector Ordered array of inputs.  (Bias input is always 1 and shouldn't be included in this array)
+     * @return
+     */
+    public ArrayList<Double> computeActivationReference(ArrayList<Double> inputVector){
         // First, update the activation of all input neurons, remembering the previous activation.
-        UpdateInputLayerActivation(inputVector);
+        updateInputLayerActivation(inputVector);
 
         // Figure out activation of output layer by recursively figuring out output of all inputs,
         // one level at a time.  If we have to ask for the activation of a neuron more than once,
@@ -274,6 +375,68 @@ public class Network {
         return activations;
     }
 
+    /**
+     * The fingerprint of this network's current topology.
+     * @return
+     */
+    public TopologyFingerprint getTopologyFingerprint() {
+        if (m_topologyFingerprint == null) {
+            m_topologyFingerprint = TopologyFingerprint.of(this);
+        }
+        return m_topologyFingerprint;
+    }
+
+    /**
+     * Returns the compiled form of this network, with its weights refreshed from the links.
+     * The evaluation plan comes from the shared plan cache, so networks with identical topologies only compile once.
+     * Links of weight 0 (e.g. deleted by {@link NetworkMutator#mutateDeleteLink()}), and hidden nodes they leave
+     * without a path to an output, are pruned from the plan but kept in the network; the network is recompiled
+     * whenever the set of links of weight 0 changes.
+     * Callers evaluating many inputs should hold on to the returned object rather than calling this repeatedly.
+     * @return
+     */
+    public CompiledNetwork getCompiled() {
+        if (m_compiled == null || !m_compiled.refreshWeights()) {
+            EvaluationPlan plan = s_evaluationPlanCache.getPlan(TopologyFingerprint.ofEvaluated(this));
+            m_compiled = new CompiledNetwork(plan, this);
+        }
+        return m_compiled;
+    }
+
+    /**
+     * True if the network contains a cycle of enabled links, i.e. some link must read an activation from the
+     * previous pass.
+     * Detected when the network is compiled after a topology change (e.g. when
+     * {@link NetworkMutator#mutateNewLink()} closes a loop).
+     * @return
+     */
+    public boolean hasRecurrentLinks() {
+        return getCompiled().getPlan().hasRecurrentLinks();
+    }
+
+    /**
+     * Discards the fingerprint and compiled form of this network.  Must be called whenever nodes or links are
+     * added or removed; the structural methods of this class and {@link NetworkMutator} do so automatically.
+     */
+    public void invalidateTopology() {
+        m_topologyFingerprint = null;
+        m_compiled = null;
+        m_linksSortedById = null;
+    }
+
+    /**
+     * All links, ordered by id.  Networks with the same topology have identically ordered arrays, so their
+     * weights can be compared and combined index by index.  Callers must not modify the returned array.
+     * @return
+     */
+    public Link[] getLinksSortedById() {
+        if (m_linksSortedById == null) {
+            m_linksSortedById = m_mapIdToAllLinks.values().toArray(new Link[m_mapIdToAllLinks.size()]);
+            Arrays.sort(m_linksSortedById, (l1, l2) -> Integer.compare(l1.getId(), l2.getId()));
+        }
+        return m_linksSortedById;
+    }
+
     /**
      * Iterates through all nodes in the network, looking for errors.
      * All nodes and links should make sense.
@@ -293,10 +456,10 @@ public class Network {
         for(Link l : m_mapIdToAllLinks.values())
         {
             // We better know about all nodes each link is referring to
-            if (!m_mapIdToAllNodes.containsKey(l.getNodeIn().getId())) throw new InvalidStateException("Cannot find a node.");
-            if (!m_mapIdToAllNodes.containsKey(l.getNodeOut().getId())) throw new InvalidStateException("Cannot find a node");
+            if (!m_mapIdToAllNodes.containsKey(l.getNodeIn().getId())) throw new IllegalStateException("Cannot find a node.");
+            if (!m_mapIdToAllNodes.containsKey(l.getNodeOut().getId())) throw new IllegalStateException("Cannot find a node");
             // If the nodes in the link are not actually connected, that's a problem.
-            if (!areNodesConnected(l.getNodeIn(), l.getNodeOut())) throw new InvalidStateException("Nodes are not connected.");
+            if (!areNodesConnected(l.getNodeIn(), l.getNodeOut())) throw new IllegalStateException("Nodes are not connected.");
         }
 
         // Count all the links (each link should be counted twice).  Should match the links we know about.
@@ -306,7 +469,7 @@ public class Network {
             linkCount += n.getLinksOutgoing().size();
         }
         if(linkCount != m_mapIdToAllLinks.size() * 2) {
-            throw new InvalidStateException("Unexpected link count found.");
+            throw new IllegalStateException("Unexpected link count found.");
         }
     }
 
@@ -318,7 +481,8 @@ public class Network {
         Network copyNetwork = new Network();
         copyNetwork.m_idGeneratorLink = m_idGeneratorLink;
         copyNetwork.m_idGeneratorNode = m_idGeneratorNode;
-        CopyNodesToNetwork(copyNetwork);
+        copyNetwork.setSizeLimits(m_maxNodeCount, m_maxLinkCount);
+        copyNodesToNetwork(copyNetwork);
         copyLinksToNetwork(copyNetwork);
         copyNetworkUpdateNodeShallowLinks(copyNetwork);
 
@@ -327,6 +491,67 @@ public class Network {
         return copyNetwork;
     }
 
+    /**
+     * Overwrites this network with a copy of the other network, reusing this network's objects.
+     * If both networks already share a topology, only the weights are copied and nothing is allocated;
+     * otherwise the structure is rebuilt as in {@link #copy()}.  The network is given a new unique id,
+     * and all activations are cleared.
+     * @param other
+     */
+    public void copyFrom(Network other) {
+        if (copyTopologyFrom(other)) {
+            Link[] links = getLinksSortedById();
+            Link[] otherLinks = other.getLinksSortedById();
+            for (int l = 0; l < links.length; l++) {
+                links[l].setWeight(otherLinks[l].getWeight());
+                links[l].setStepSize(otherLinks[l].getStepSize());
+            }
+        }
+    }
+
+    /**
+     * Gives this network the topology of the other network, reusing this network's objects.
+     * If both networks already share a topology, nothing is allocated and the weights are left untouched;
+     * otherwise the structure (and weights) are rebuilt as in {@link #copy()}.  The network is given a new unique id,
+     * and all activations are cleared.
+     * @param other
+     * @return True if the topology already matched, in which case the weights were not copied.
+     */
+    public boolean copyTopologyFrom(Network other) {
+        m_id = s_networkUniqueIdGenerator.getAndIncrement();
+        setSizeLimits(other.m_maxNodeCount, other.m_maxLinkCount);
+
+        if (getTopologyFingerprint().equals(other.getTopologyFingerprint())) {
+            for (Node n : m_mapIdToAllNodes.values()) {
+                if (n.getNodeRole() != Node.NodeRole.BIAS) {
+                    n.setActivationCurrent(0);
+                    n.setActivationPrevious(0);
+                }
+            }
+            if (m_compiled != null) {
+                m_compiled.reset();
+            }
+            return true;
+        }
+
+        invalidateTopology();
+        m_mapIdToAllNodes.clear();
+        m_nodesInput.clear();
+        m_nodesInputAndBias.clear();
+        m_nodesHidden.clear();
+        m_nodesOutput.clear();
+        m_mapIdToAllLinks.clear();
+        m_nodeBias = null;
+        m_idGeneratorLink = other.m_idGeneratorLink;
+        m_idGeneratorNode = other.m_idGeneratorNode;
+        other.copyNodesToNetwork(this);
+        other.copyLinksToNetwork(this);
+        other.copyNetworkUpdateNodeShallowLinks(this);
+
+        verifyNetworkConnectivity();
+        return false;
+    }
+
     /**
      * String representation of this network
      * @return
@@ -368,6 +593,10 @@ public class Network {
             output.setNodeRole(Node.NodeRole.OUTPUT);
             addNode(output);
         }
+
+        // Every minimal network numbers these nodes, and the links between them (see getMinimalLinkId), the same way;
+        // make sure no other node or link ever reuses the ids.
+        s_innovationRegistry.reserveIds((numInputs + 1) * numOutputs, m_idGeneratorNode);
     }
 
     private void createMinimalNetworkLinks(){
@@ -531,13 +760,45 @@ public class Network {
         nodesConnected = (srcConnectsToTgt && tgtConnectsToSrc);
         if(srcConnectsToTgt ^ tgtConnectsToSrc)
         {
-            throw new InvalidStateException("Node connection mismatch.");
+            throw new IllegalStateException("Node connection mismatch.");
         }
         return nodesConnected;
     }
 
+    /**
+     * Creates a hidden node to split the supplied link.  Its id comes from the innovation registry, so every network
+     * splitting the same link this generation creates a node with the same id.
+     * @param linkToSplit
+     * @return
+     */
+    public Node createNodeSplittingLink(Link linkToSplit) {
+        int id = s_innovationRegistry.getSplitNodeInnovation(linkToSplit.getId());
+        if (m_mapIdToAllNodes.containsKey(id)) {
+            // This network already split the same link once this generation; the node must differ.
+            id = s_innovationRegistry.getNewNodeId();
+        }
+        m_idGeneratorNode = Math.max(m_idGeneratorNode, id + 1);
+        Node n = new Node(id);
+        n.setNodeRole(Node.NodeRole.HIDDEN);
+        return n;
+    }
+
+    /**
+     * Creates a link between two nodes with a random weight, and adds it to the network.
+     * The link's id is its innovation number (see {@link InnovationRegistry}), or for a link of the minimal network,
+     * a fixed id every network agrees on.
+     * @param source
+     * @param target
+     * @return
+     */
     public Link createNewLinkBetweenExistingNodes(Node source, Node target) {
-        Link link = createLink();
+        invalidateTopology();
+        int id = getMinimalLinkId(source, target);
+        if (id < 0) {
+            id = s_innovationRegistry.getLinkInnovation(source.getId(), target.getId());
+        }
+        Link link = new Link(id);
+        m_idGeneratorLink = Math.max(m_idGeneratorLink, link.getId() + 1);
         link.setNodeIn(source);
         link.setNodeOut(target);
         randomizeLinkWeight(link);
@@ -548,4 +809,20 @@ public class Network {
 
         return link;
     }
+
+    /**
+     * The fixed id of a link from an input (or the bias) to an output, which is a link of the minimal network:
+     * inputIndex * numOutputs + outputIndex, counting the bias as input 0.  These ids don't come from the innovation
+     * registry, so they are the same in every process, even once {@link InnovationRegistry#setIdRange(int, int)}
+     * has given each process a range of its own.  Returns -1 for any other link.
+     * @param source
+     * @param target
+     * @return
+     */
+    private int getMinimalLinkId(Node source, Node target) {
+        int sourceIndex = m_nodesInputAndBias.indexOf(source);
+        int targetIndex = m_nodesOutput.indexOf(target);
+        if (sourceIndex < 0 || targetIndex < 0) return -1;
+        return sourceIndex * m_nodesOutput.size() + targetIndex;
+    }
 }
@@ -0,0 +1,111 @@
+package com.bateman.richard.evonn.lib.ann;
+
+import com.bateman.richard.math.RNG;
+
+/**
+ * Combines the weights of two parent networks into a child network.
+ * Apart from {@link #byInnovation(Network, Network, Network)}, the parents must share a topology.
+ * The parents and child are walked in a single pass over their id-ordered link arrays
+ * (see {@link Network#getLinksSortedById()}), which line up index by index for networks sharing a topology,
+ * so no map lookups or intermediate copies are needed.  Every weight of the child is overwritten,
+ * so the child only needs its topology beforehand (see {@link Network#copyTopologyFrom(Network)}).
+ */
+public class NetworkCrossover {
+
+    /**
+     * Each weight is taken from either parent with equal probability.
+     * @param a
+     * @param b
+     * @param child
+     */
+    public static void uniform(Network a, Network b, Network child) {
+        Link[] linksA = a.getLinksSortedById();
+        Link[] linksB = b.getLinksSortedById();
+        Link[] linksChild = child.getLinksSortedById();
+        verifyAligned(linksA, linksB, linksChild);
+
+        for (int l = 0; l < linksChild.length; l++) {
+            linksChild[l].setWeight(RNG.rnd() < 0.5 ? linksA[l].getWeight() : linksB[l].getWeight());
+        }
+    }
+
+    /**
+     * Weights before a random crossover point are taken from parent a, and the rest from parent b.
+     * @param a
+     * @param b
+     * @param child
+     */
+    public static void onePoint(Network a, Network b, Network child) {
+        Link[] linksA = a.getLinksSortedById();
+        Link[] linksB = b.getLinksSortedById();
+        Link[] linksChild = child.getLinksSortedById();
+        verifyAligned(linksA, linksB, linksChild);
+
+        int crossoverPoint = (int) RNG.rnd(linksChild.length + 1);
+        for (int l = 0; l < linksChild.length; l++) {
+            linksChild[l].setWeight(l < crossoverPoint ? linksA[l].getWeight() : linksB[l].getWeight());
+        }
+    }
+
+    /**
+     * Blend crossover (BLX-alpha):  each weight is drawn uniformly from the interval spanned by the parents' weights,
+     * extended on both sides by alpha times its width.  An alpha of 0 interpolates between the parents.
+     * @param a
+     * @param b
+     * @param child
+     * @param alpha
+     */
+    public static void blend(Network a, Network b, Network child, double alpha) {
+        Link[] linksA = a.getLinksSortedById();
+        Link[] linksB = b.getLinksSortedById();
+        Link[] linksChild = child.getLinksSortedById();
+        verifyAligned(linksA, linksB, linksChild);
+
+        for (int l = 0; l < linksChild.length; l++) {
+            double weightA = linksA[l].getWeight();
+            double weightB = linksB[l].getWeight();
+            double u = RNG.rnd(-alpha, 1 + alpha);
+            linksChild[l].setWeight(weightA + u * (weightB - weightA));
+        }
+    }
+
+    /**
+     * Crossover between networks whose topologies may differ.  The child has the fitter parent's topology;
+     * genes the parents share (matched by innovation id) take either parent's weight with equal probability,
+     * and the fitter parent's disjoint and excess genes keep its weight.  The genes are matched with a single
+     * merge over both parents' id-ordered link arrays.
+     * @param fitter The fitter parent.
+     * @param other The other parent.
+     * @param child Receives the child.  Must already have the fitter parent's topology; every weight is overwritten.
+     */
+    public static void byInnovation(Network fitter, Network other, Network child) {
+        Link[] linksFitter = fitter.getLinksSortedById();
+        Link[] linksOther = other.getLinksSortedById();
+        Link[] linksChild = child.getLinksSortedById();
+        if (linksFitter.length != linksChild.length) {
+            throw new IllegalArgumentException("The child must have the topology of the fitter parent.");
+        }
+
+        int j = 0;
+        for (int l = 0; l < linksChild.length; l++) {
+            int id = linksFitter[l].getId();
+            while (j < linksOther.length && linksOther[j].getId() < id) {
+                j++;
+            }
+            boolean matching = (j < linksOther.length && linksOther[j].getId() == id);
+            linksChild[l].setWeight((matching && RNG.rnd() < 0.5) ? linksOther[j].getWeight() : linksFitter[l].getWeight());
+        }
+    }
+
+    private static void verifyAligned(Link[] linksA, Link[] linksB, Link[] linksChild) {
+        if (linksA.length != linksB.length || linksA.length != linksChild.length) {
+            throw new IllegalArgumentException("Crossover requires networks with identical topologies.");
+        }
+        for (int l = 0; l < linksChild.length; l++) {
+            int id = linksChild[l].getId();
+            if (linksA[l].getId() != id || linksB[l].getId() != id) {
+                throw new IllegalArgumentException("Crossover requires networks with identical topologies.");
+            }
+        }
+    }
+}
@@ -1,193 +1,277 @@
 package com.bateman.richard.evonn.lib.ann;
 
+import com.bateman.richard.math.FastRandom;
 import com.bateman.richard.math.RNG;
 
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Responsible for making random changes to the weights and topology of a network.
+ * Any change to the structure of the network invalidates the network's compiled evaluation plan.
+ * Structural mutations never grow the network beyond its size limits (see {@link Network#setSizeLimits(int, int)});
+ * a mutation that would do nothing instead.
+ */
 public class NetworkMutator {
-    #region Private Members
+    private final Network m_network;
 
-    private readonly Network m_network;
-
-    private readonly Dictionary<int, List<int>> m_validSourceToTargets = new Dictionary<int, List<int>>();
-
-        #endregion
-
-        #region Constructors
-
-    public NetworkMutator(Network network)
-    {
+    public NetworkMutator(Network network) {
         m_network = network;
     }
 
-        #endregion
-
-        #region Public Methods
-
-    /// <summary>
-    /// Randomly alters the weight of one of the links.
-    /// </summary>
-    public void MutateWeight()
-    {
-        if (m_network.LinkCount > 0)
-        {
-            List<Link> allLinks = m_network.MapIdToAllLinks.Values.ToList();
-            int linkSelection = RNG.Rnd(allLinks.Count);
+    /**
+     * Randomly alters the weight of one of the links.  Allocates nothing unless the topology has changed.
+     */
+    public void mutateWeight() {
+        if (m_network.getLinkCount() > 0) {
+            Link[] allLinks = m_network.getLinksSortedById();
+            int linkSelection = (int) RNG.rnd(allLinks.length);
             Link selectedLink = allLinks[linkSelection];
-            int desiredBehavior = RNG.Rnd(4);
-            if (selectedLink.Weight == 0)
-            {
+            int desiredBehavior = (int) RNG.rnd(4);
+            if (selectedLink.getWeight() == 0) {
                 // if the link is disabled, re-enable it.
                 desiredBehavior = 3;
             }
 
-            switch(desiredBehavior)
-            {
-                case 0: selectedLink.Weight *= (1 + RNG.Rnd(0.05, 0.10)); break;
-                case 1: selectedLink.Weight *= (RNG.Rnd(0.90, 0.95)); break;
-                case 2: selectedLink.Weight *= -1; break;
-                case 3: m_network.RandomizeLinkWeight(selectedLink); break;
+            switch (desiredBehavior) {
+                case 0: selectedLink.setWeight(selectedLink.getWeight() * (1 + RNG.rnd(0.05, 0.10))); break;
+                case 1: selectedLink.setWeight(selectedLink.getWeight() * RNG.rnd(0.90, 0.95)); break;
+                case 2: selectedLink.setWeight(selectedLink.getWeight() * -1); break;
+                case 3: m_network.randomizeLinkWeight(selectedLink); break;
+            }
+        }
+    }
+
+    /**
+     * Adds Gaussian noise to a fraction of the weights, in a single pass over the links.  Rather than flipping a
+     * coin for every link, the gap to the next link to mutate is drawn from the geometric distribution, so the cost
+     * is proportional to the number of weights changed.  Random numbers come from the calling thread's own
+     * generator, so concurrent mutations never contend.
+     *
+     * With self-adaptation, every link carries its own step size, which is itself mutated (log-normally) before
+     * the weight is perturbed with it, so step sizes that produce fitter offspring are inherited with them.
+     * Allocates nothing unless the topology has changed.
+     * @param fraction The expected fraction of the weights to perturb, from 0 to 1.  At least one weight is perturbed.
+     * @param stepSize The standard deviation of the noise, and the initial step size of every link when self-adapting.
+     * @param selfAdaptive Whether to use and mutate each link's own step size.
+     */
+    public void mutateWeightsGaussian(double fraction, double stepSize, boolean selfAdaptive) {
+        Link[] links = m_network.getLinksSortedById();
+        if (links.length == 0) return;
+        FastRandom random = FastRandom.current();
+
+        // The learning rate commonly used for log-normal self-adaptation of one step size per weight.
+        double tau = 1 / Math.sqrt(2 * Math.sqrt(links.length));
+        if (fraction >= 1) {
+            for (Link link : links) {
+                perturbWeight(link, random, stepSize, tau, selfAdaptive);
             }
+            return;
+        }
+        double logSkip = Math.log1p(-Math.max(fraction, 0));
+        if (logSkip == 0) {
+            // The fraction is too small to tell from 0, so the first gap would be endless.
+            perturbWeight(links[random.nextInt(links.length)], random, stepSize, tau, selfAdaptive);
+            return;
+        }
+        int l = nextGap(random, logSkip, links.length);
+        if (l >= links.length) {
+            l = random.nextInt(links.length);
+        }
+        while (l < links.length) {
+            perturbWeight(links[l], random, stepSize, tau, selfAdaptive);
+            l += 1 + nextGap(random, logSkip, links.length - l);
         }
     }
 
-    /// <summary>
-    /// Mutates a new node in the network.  Unlike with new links, it is always possible (and easy) to add a new node.
-    /// </summary>
-    public void MutateNewNode()
-    {
-        List<Link> allLinks = new List<Link>(m_network.MapIdToAllLinks.Values);
-        int selection = RNG.Rnd(allLinks.Count);
-        Link linkToSplit = allLinks[selection];
-        Node sourceNode = linkToSplit.NodeIn;
-        Node targetNode = linkToSplit.NodeOut;
-
-        Node hiddenNew = m_network.CreateNode();
-        hiddenNew.Role = NodeRole.Hidden;
-        m_network.AddNode(hiddenNew);
-        m_network.CreateNewLinkBetweenExistingNodes(sourceNode, hiddenNew);
-        m_network.CreateNewLinkBetweenExistingNodes(hiddenNew, targetNode);
+    /**
+     * Adds Gaussian noise to the link's weight, first mutating its step size when self-adapting.
+     */
+    private static void perturbWeight(Link link, FastRandom random, double stepSize, double tau, boolean selfAdaptive) {
+        double sigma = stepSize;
+        if (selfAdaptive) {
+            sigma = (link.getStepSize() > 0) ? link.getStepSize() : stepSize;
+            sigma *= Math.exp(tau * random.nextGaussian());
+            // Keep step sizes within a sensible range of the configured size, so they neither vanish nor explode.
+            sigma = Math.max(stepSize * 1e-3, Math.min(sigma, stepSize * 1e3));
+            link.setStepSize(sigma);
+        }
+        link.setWeight(link.getWeight() + sigma * random.nextGaussian());
+    }
+
+    /**
+     * Draws the number of links to skip before the next one to mutate, when each is mutated with probability p,
+     * where logSkip = log(1 - p) (which must not be 0).  Gaps beyond the limit are returned as the limit, so that
+     * adding them to an index into the links cannot overflow.
+     */
+    private static int nextGap(FastRandom random, double logSkip, int limit) {
+        double gap = Math.floor(Math.log(1 - random.nextDouble()) / logSkip);
+        return (gap < limit) ? (int) gap : limit;
+    }
+
+    /**
+     * Mutates a new node in the network.  Unlike with new links, it is always possible (and easy) to add a new node,
+     * unless the network has reached its size limits.
+     */
+    public void mutateNewNode() {
+        // Splitting a link adds a node, and replaces one link with two.
+        if (!canGrowBy(1, 1)) return;
+        List<Link> allLinks = new ArrayList<>(m_network.getMapIdToAllLinks().values());
+        int selection = (int) RNG.rnd(allLinks.size());
+        Link linkToSplit = allLinks.get(selection);
+        Node sourceNode = linkToSplit.getNodeIn();
+        Node targetNode = linkToSplit.getNodeOut();
+
+        Node hiddenNew = m_network.createNodeSplittingLink(linkToSplit);
+        m_network.addNode(hiddenNew);
+        m_network.createNewLinkBetweenExistingNodes(sourceNode, hiddenNew);
+        m_network.createNewLinkBetweenExistingNodes(hiddenNew, targetNode);
 
         // Preserve the split link's weight on one of the new links (decided randomly)
-        if(RNG.Rnd() < 0.5)
-        {
-            hiddenNew.LinksIncoming[sourceNode.Id].Weight = linkToSplit.Weight;
+        if (RNG.rnd() < 0.5) {
+            hiddenNew.getLinksIncoming().get(sourceNode.getId()).setWeight(linkToSplit.getWeight());
         }
-        else
-        {
-            hiddenNew.LinksOutgoing[targetNode.Id].Weight = linkToSplit.Weight;
+        else {
+            hiddenNew.getLinksOutgoing().get(targetNode.getId()).setWeight(linkToSplit.getWeight());
         }
 
         // Remove the old link
-        sourceNode.LinksOutgoing.Remove(targetNode.Id);
-        targetNode.LinksIncoming.Remove(sourceNode.Id);
-        m_network.RemoveLink(linkToSplit);
+        sourceNode.getLinksOutgoing().remove(targetNode.getId());
+        targetNode.getLinksIncoming().remove(sourceNode.getId());
+        m_network.removeLink(linkToSplit);
 
-        m_network.VerifyNetworkConnectivity();
+        m_network.invalidateTopology();
+        m_network.verifyNetworkConnectivity();
     }
 
-    /// <summary>
-    /// If possible, inserts a new link between two previously unconnected nodes.
-    /// May do nothing if it chooses two already-connected nodes.
-    /// </summary>
-    public void MutateNewLink()
-    {
-        List<Node> allNodes = m_network.MapIdToAllNodes.Values.ToList();
-        Node sourceNode = allNodes[RNG.Rnd(allNodes.Count)];
-        Node targetNode = allNodes[RNG.Rnd(allNodes.Count)];
-
-        if (!m_network.AreNodesConnected(sourceNode, targetNode))
-        {
-            m_network.CreateNewLinkBetweenExistingNodes(sourceNode, targetNode);
-            m_network.VerifyNetworkConnectivity();
+    /**
+     * If possible, inserts a new link between two previously unconnected nodes.
+     * May do nothing if it chooses two already-connected nodes.
+     */
+    public void mutateNewLink() {
+        if (!canGrowBy(0, 1)) return;
+        List<Node> allNodes = new ArrayList<>(m_network.getMapIdToAllNodes().values());
+        Node sourceNode = allNodes.get((int) RNG.rnd(allNodes.size()));
+        Node targetNode = allNodes.get((int) RNG.rnd(allNodes.size()));
+
+        if (!m_network.areNodesConnected(sourceNode, targetNode)) {
+            m_network.createNewLinkBetweenExistingNodes(sourceNode, targetNode);
+            m_network.invalidateTopology();
+            m_network.verifyNetworkConnectivity();
         }
     }
 
-    /// <summary>
-    /// Takes a random link and sets its weight to 0, preventing it from being used.
-    /// </summary>
-    public void MutateDeleteLink()
-    {
-        List<Link> allLinks = new List<Link>(m_network.MapIdToAllLinks.Values);
-        int selection = RNG.Rnd(allLinks.Count);
-        Link selectedLink = allLinks[selection];
-        selectedLink.Weight = 0;
+    /**
+     * Takes a random link and sets its weight to 0, preventing it from being used.
+     */
+    public void mutateDeleteLink() {
+        List<Link> allLinks = new ArrayList<>(m_network.getMapIdToAllLinks().values());
+        int selection = (int) RNG.rnd(allLinks.size());
+        Link selectedLink = allLinks.get(selection);
+        selectedLink.setWeight(0);
     }
 
-    /// <summary>
-    /// Deletes a random hidden node.
-    /// </summary>
-    public void MutateDeleteNode()
-    {
-        if(m_network.NodesHidden.Count > 0)
-        {
-            m_network.VerifyNetworkConnectivity();
+    /**
+     * Deletes a random hidden node.  Does nothing if the links bridging the node would grow the network beyond
+     * its link limit.
+     */
+    public void mutateDeleteNode() {
+        if (m_network.getNodesHidden().size() > 0) {
+            m_network.verifyNetworkConnectivity();
 
-            Node selectedNode = m_network.NodesHidden[RNG.Rnd(m_network.NodesHidden.Count)];
-            List<Link> selectedNodeIncomingLinks = new List<Link>(selectedNode.LinksIncoming.Values);
-            List<Link> selectedNodeOutgoingLinks = new List<Link>(selectedNode.LinksOutgoing.Values);
+            Node selectedNode = m_network.getNodesHidden().get((int) RNG.rnd(m_network.getNodesHidden().size()));
+            List<Link> selectedNodeIncomingLinks = new ArrayList<>(selectedNode.getLinksIncoming().values());
+            List<Link> selectedNodeOutgoingLinks = new ArrayList<>(selectedNode.getLinksOutgoing().values());
+            if (!canGrowBy(0, countLinksAddedByDeleting(selectedNode, selectedNodeIncomingLinks, selectedNodeOutgoingLinks))) return;
 
             // Connect every node that feeds into the hidden node with every node this hidden node feeds.
             // This may result in numerous connections being formed.
-            foreach (var inNodeLink in selectedNodeIncomingLinks)
-            {
-                foreach(var outNodeLink in selectedNodeOutgoingLinks)
-                {
-                    Node sourceNode = inNodeLink.NodeIn;
-                    Node targetNode = outNodeLink.NodeOut;
+            for (Link inNodeLink : selectedNodeIncomingLinks) {
+                for (Link outNodeLink : selectedNodeOutgoingLinks) {
+                    Node sourceNode = inNodeLink.getNodeIn();
+                    Node targetNode = outNodeLink.getNodeOut();
 
                     // Make sure the source node and target node are not also the hidden node.
-                    if (sourceNode.Id != selectedNode.Id && targetNode.Id != selectedNode.Id)
-                    {
-                        if (!m_network.AreNodesConnected(sourceNode, targetNode))
-                        {
-                            m_network.CreateNewLinkBetweenExistingNodes(sourceNode, targetNode);
-                            m_network.VerifyNetworkConnectivity();
+                    if (sourceNode.getId() != selectedNode.getId() && targetNode.getId() != selectedNode.getId()) {
+                        if (!m_network.areNodesConnected(sourceNode, targetNode)) {
+                            m_network.createNewLinkBetweenExistingNodes(sourceNode, targetNode);
+                            m_network.verifyNetworkConnectivity();
                         }
 
                         // It's possible the links from this hidden node to the other nodes have
                         // already been deleted.
-                        if(selectedNode.LinksIncoming.ContainsKey(sourceNode.Id))
-                        {
-                            Link originalSourceToHidden = selectedNode.LinksIncoming[sourceNode.Id];
-                            m_network.RemoveLink(originalSourceToHidden);
-                            selectedNode.LinksIncoming.Remove(sourceNode.Id);
+                        if (selectedNode.getLinksIncoming().containsKey(sourceNode.getId())) {
+                            Link originalSourceToHidden = selectedNode.getLinksIncoming().get(sourceNode.getId());
+                            m_network.removeLink(originalSourceToHidden);
+                            selectedNode.getLinksIncoming().remove(sourceNode.getId());
                         }
-                        if (selectedNode.LinksOutgoing.ContainsKey(targetNode.Id))
-                        {
-                            Link originalHiddenToTarget = selectedNode.LinksOutgoing[targetNode.Id];
-                            m_network.RemoveLink(originalHiddenToTarget);
-                            selectedNode.LinksOutgoing.Remove(targetNode.Id);
+                        if (selectedNode.getLinksOutgoing().containsKey(targetNode.getId())) {
+                            Link originalHiddenToTarget = selectedNode.getLinksOutgoing().get(targetNode.getId());
+                            m_network.removeLink(originalHiddenToTarget);
+                            selectedNode.getLinksOutgoing().remove(targetNode.getId());
                         }
 
-                        sourceNode.LinksOutgoing.Remove(selectedNode.Id);
-                        targetNode.LinksIncoming.Remove(selectedNode.Id);
+                        sourceNode.getLinksOutgoing().remove(selectedNode.getId());
+                        targetNode.getLinksIncoming().remove(selectedNode.getId());
 
-                        m_network.VerifyNetworkConnectivity();
+                        m_network.verifyNetworkConnectivity();
                     }
-                    else
-                    {
+                    else {
                         // The hidden node that we are removing is pointing to itself.  We can safely remove the link.
-                        if (sourceNode.Id == selectedNode.Id && targetNode.Id == selectedNode.Id)
-                        {
-                            selectedNode.LinksIncoming.Remove(selectedNode.Id);
-                            selectedNode.LinksOutgoing.Remove(selectedNode.Id);
-                            m_network.RemoveLink(inNodeLink);
+                        if (sourceNode.getId() == selectedNode.getId() && targetNode.getId() == selectedNode.getId()) {
+                            selectedNode.getLinksIncoming().remove(selectedNode.getId());
+                            selectedNode.getLinksOutgoing().remove(selectedNode.getId());
+                            m_network.removeLink(inNodeLink);
                         }
                     }
                 }
             }
 
             // The selected Node should have no links at this point.
-            if (selectedNode.LinksIncoming.Count > 0) throw new Exception();
-            if (selectedNode.LinksOutgoing.Count > 0) throw new Exception();
+            if (selectedNode.getLinksIncoming().size() > 0) throw new IllegalStateException("Deleted node still has incoming links.");
+            if (selectedNode.getLinksOutgoing().size() > 0) throw new IllegalStateException("Deleted node still has outgoing links.");
 
             // At this point, we can remove the hidden node.
             // Any links it used to refer to should have already been removed.
-            m_network.RemoveHiddenNode(selectedNode);
-            m_network.VerifyNetworkConnectivity();
+            m_network.removeHiddenNode(selectedNode);
+            m_network.invalidateTopology();
+            m_network.verifyNetworkConnectivity();
         }
     }
 
-        #endregion
+    /**
+     * Returns the net number of links deleting the node would add:  a link bridging every pair of an in-neighbour
+     * and an out-neighbour not already connected, less the node's own links.  Positive when the node has many
+     * neighbours, as the bridging links grow with the product of their numbers.
+     */
+    private int countLinksAddedByDeleting(Node node, List<Link> incomingLinks, List<Link> outgoingLinks) {
+        int added = 0;
+        for (Link inNodeLink : incomingLinks) {
+            Node sourceNode = inNodeLink.getNodeIn();
+            if (sourceNode.getId() == node.getId()) continue;
+            for (Link outNodeLink : outgoingLinks) {
+                Node targetNode = outNodeLink.getNodeOut();
+                if (targetNode.getId() != node.getId() && !m_network.areNodesConnected(sourceNode, targetNode)) {
+                    added++;
+                }
+            }
+        }
+        int removed = incomingLinks.size() + outgoingLinks.size();
+        if (node.getLinksIncoming().containsKey(node.getId())) {
+            // A self-loop is both an incoming and an outgoing link.
+            removed--;
+        }
+        return added - removed;
+    }
+
+    /**
+     * True if the network may gain the supplied numbers of nodes and links without exceeding its size limits.
+     */
+    private boolean canGrowBy(int nodes, int links) {
+        int maxNodeCount = m_network.getMaxNodeCount();
+        int maxLinkCount = m_network.getMaxLinkCount();
+        if (nodes > 0 && maxNodeCount > 0 && m_network.getNodeCount() + nodes > maxNodeCount) return false;
+        if (links > 0 && maxLinkCount > 0 && m_network.getLinkCount() + links > maxLinkCount) return false;
+        return true;
+    }
 }
@@ -109,6 +109,6 @@ public class Node {
 
     @Override
     public String toString() {
-        return ANNIO.ToStringRepresentation(this);
+        return ANNIO.toStringRepresentation(this);
     }
 }
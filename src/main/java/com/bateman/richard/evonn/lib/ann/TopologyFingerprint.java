@@ -0,0 +1,133 @@
+package com.bateman.richard.evonn.lib.ann;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A canonical description of the structure of a network (nodes, roles and links, but not weights).
+ * Two networks with equal fingerprints can share the same evaluation plan.
+ *
+ * A fingerprint may also mark links as disabled, to be left out of evaluation.  The genome's fingerprint
+ * ({@link #of(Network)}) disables nothing; the fingerprint a network is compiled from
+ * ({@link #ofEvaluated(Network)}) disables the links whose weight is 0.
+ */
+public class TopologyFingerprint {
+    /**
+     * Layout:
+     * biasId, numInputs, inputIds..., numOutputs, outputIds..., numHidden, hiddenIds (sorted)...,
+     * numLinks, (linkId, sourceId, targetId) sorted by link id...,
+     * disabled mask ((numLinks + 31) / 32 words; bit l of the mask set if link l, in link id order, is disabled)
+     */
+    private final int[] m_data;
+    private final int m_hashCode;
+
+    private TopologyFingerprint(int[] data) {
+        m_data = data;
+        m_hashCode = Arrays.hashCode(data);
+    }
+
+    /**
+     * Computes the fingerprint of the supplied network, with every link enabled.
+     * @param network
+     * @return
+     */
+    public static TopologyFingerprint of(Network network) {
+        return of(network, false);
+    }
+
+    /**
+     * Computes the fingerprint the supplied network is evaluated with:  its structure, with every link of weight 0
+     * disabled.  Networks of the same structure whose weights are zero in the same places share a plan.
+     * @param network
+     * @return
+     */
+    public static TopologyFingerprint ofEvaluated(Network network) {
+        return of(network, true);
+    }
+
+    private static TopologyFingerprint of(Network network, boolean disableZeroWeights) {
+        ArrayList<Node> inputs = network.getNodesInput();
+        ArrayList<Node> outputs = network.getNodesOutput();
+        ArrayList<Node> hidden = network.getNodesHidden();
+        int numLinks = network.getLinkCount();
+
+        int[] data = new int[1 + (1 + inputs.size()) + (1 + outputs.size()) + (1 + hidden.size()) + (1 + numLinks * 3) +
+                getMaskLength(numLinks)];
+        int index = 0;
+        data[index++] = network.getNodeBias().getId();
+
+        data[index++] = inputs.size();
+        for (Node n : inputs) {
+            data[index++] = n.getId();
+        }
+
+        data[index++] = outputs.size();
+        for (Node n : outputs) {
+            data[index++] = n.getId();
+        }
+
+        data[index++] = hidden.size();
+        int hiddenStart = index;
+        for (Node n : hidden) {
+            data[index++] = n.getId();
+        }
+        Arrays.sort(data, hiddenStart, index);
+
+        data[index++] = numLinks;
+        Link[] links = network.getMapIdToAllLinks().values().toArray(new Link[numLinks]);
+        Arrays.sort(links, (l1, l2) -> Integer.compare(l1.getId(), l2.getId()));
+        for (Link l : links) {
+            data[index++] = l.getId();
+            data[index++] = l.getNodeIn().getId();
+            data[index++] = l.getNodeOut().getId();
+        }
+
+        if (disableZeroWeights) {
+            for (int l = 0; l < numLinks; l++) {
+                if (links[l].getWeight() == 0) {
+                    data[index + (l >>> 5)] |= 1 << (l & 31);
+                }
+            }
+        }
+
+        return new TopologyFingerprint(data);
+    }
+
+    /**
+     * The number of words in the disabled mask of a fingerprint with the supplied number of links.
+     * @param numLinks
+     * @return
+     */
+    static int getMaskLength(int numLinks) {
+        return (numLinks + 31) >>> 5;
+    }
+
+    /**
+     * The raw fingerprint data.  Callers must not modify the returned array.
+     * @return
+     */
+    int[] getData() {
+        return m_data;
+    }
+
+    /**
+     * The number of ints making up this fingerprint.  Used to estimate the memory cost of a cache entry.
+     * @return
+     */
+    public int getLength() {
+        return m_data.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TopologyFingerprint)) return false;
+        TopologyFingerprint other = (TopologyFingerprint) o;
+        return m_hashCode == other.m_hashCode && Arrays.equals(m_data, other.m_data);
+    }
+
+    @Override
+    public int hashCode() {
+        return m_hashCode;
+    }
+}
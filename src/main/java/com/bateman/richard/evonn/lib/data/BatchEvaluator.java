@@ -0,0 +1,141 @@
+package com.bateman.richard.evonn.lib.data;
+
+import com.bateman.richard.evonn.lib.ann.CompiledNetwork;
+
+/**
+ * Evaluates compiled networks on a dataset, a batch of samples at a time, with
+ * {@link CompiledNetwork#activateBatch(double[], double[], int)}.  The batch buffers are allocated once and reused,
+ * so an evaluation allocates nothing.
+ *
+ * An evaluator is not thread-safe:  give each thread (or each {@link com.bateman.richard.evonn.lib.experiment.EvaluationContext})
+ * its own evaluator over the shared dataset.
+ */
+public class BatchEvaluator {
+    /**
+     * The default number of samples per batch:  large enough to amortize the per-node overhead, and small enough
+     * for a batch's activations to stay in cache.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * Receives the results of each batch.
+     */
+    public interface BatchConsumer {
+        /**
+         * Scores one batch.
+         * @param firstSample The index of the batch's first sample in the dataset.
+         * @param count The number of samples in the batch.
+         * @param outputs Output o of sample firstSample + b at outputs[o * count + b].
+         * @param targets Target t of sample firstSample + b at targets[t * count + b].
+         * @return Whether to go on to the next batch.  Return false to abort the evaluation.
+         */
+        boolean accept(int firstSample, int count, double[] outputs, double[] targets);
+    }
+
+    private final Dataset m_dataset;
+    private final int m_batchSize;
+    private final double[] m_inputs;
+    private final double[] m_outputs;
+    private final double[] m_targets;
+
+    /**
+     * Creates an evaluator with the default batch size.
+     * @param dataset
+     */
+    public BatchEvaluator(Dataset dataset) {
+        this(dataset, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates an evaluator.
+     * @param dataset
+     * @param batchSize The largest number of samples evaluated at once.
+     */
+    public BatchEvaluator(Dataset dataset, int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("The batch size must be at least 1.");
+        m_dataset = dataset;
+        m_batchSize = batchSize;
+        m_inputs = new double[dataset.getInputCount() * batchSize];
+        m_outputs = new double[dataset.getTargetCount() * batchSize];
+        m_targets = new double[dataset.getTargetCount() * batchSize];
+    }
+
+    /**
+     * The dataset evaluated.
+     * @return
+     */
+    public Dataset getDataset() {
+        return m_dataset;
+    }
+
+    /**
+     * Evaluates the network on the first samples of the dataset, in order, passing each batch's outputs and targets
+     * to the consumer.  The network must have as many inputs and outputs as the dataset has inputs and targets.
+     * @param network
+     * @param sampleLimit The number of samples to evaluate (e.g. {@link com.bateman.richard.evonn.lib.experiment.EvaluationBudget#getSampleLimit()}).
+     *                    Integer.MAX_VALUE evaluates them all.
+     * @param consumer
+     * @return The number of samples evaluated, which is less than the limit if the consumer aborted.
+     */
+    public int evaluate(CompiledNetwork network, int sampleLimit, BatchConsumer consumer) {
+        checkShape(network);
+        int sampleCount = Math.min(Math.max(0, sampleLimit), m_dataset.getSampleCount());
+        int first = 0;
+        while (first < sampleCount) {
+            int count = Math.min(m_batchSize, sampleCount - first);
+            evaluateBatch(network, first, count);
+            first += count;
+            if (!consumer.accept(first - count, count, m_outputs, m_targets)) break;
+        }
+        return first;
+    }
+
+    /**
+     * The mean, over samples, of the absolute error summed over the outputs.
+     * @param network
+     * @param sampleLimit The number of samples to evaluate.  Integer.MAX_VALUE evaluates them all.
+     * @return
+     */
+    public double meanAbsoluteError(CompiledNetwork network, int sampleLimit) {
+        return meanError(network, sampleLimit, false);
+    }
+
+    /**
+     * The mean, over samples, of the squared error summed over the outputs.
+     * @param network
+     * @param sampleLimit The number of samples to evaluate.  Integer.MAX_VALUE evaluates them all.
+     * @return
+     */
+    public double meanSquaredError(CompiledNetwork network, int sampleLimit) {
+        return meanError(network, sampleLimit, true);
+    }
+
+    private double meanError(CompiledNetwork network, int sampleLimit, boolean squared) {
+        checkShape(network);
+        int sampleCount = Math.min(Math.max(0, sampleLimit), m_dataset.getSampleCount());
+        double total = 0;
+        for (int first = 0; first < sampleCount; first += m_batchSize) {
+            int count = Math.min(m_batchSize, sampleCount - first);
+            evaluateBatch(network, first, count);
+            for (int v = 0, end = count * m_dataset.getTargetCount(); v < end; v++) {
+                double error = m_outputs[v] - m_targets[v];
+                total += squared ? error * error : Math.abs(error);
+            }
+        }
+        return (sampleCount > 0) ? total / sampleCount : 0;
+    }
+
+    private void evaluateBatch(CompiledNetwork network, int first, int count) {
+        m_dataset.readInputBatch(first, count, m_inputs);
+        m_dataset.readTargetBatch(first, count, m_targets);
+        network.activateBatch(m_inputs, m_outputs, count);
+    }
+
+    private void checkShape(CompiledNetwork network) {
+        if (network.getPlan().getNumInputs() != m_dataset.getInputCount() || network.getPlan().getNumOutputs() != m_dataset.getTargetCount()) {
+            throw new IllegalArgumentException("The network has " + network.getPlan().getNumInputs() + " inputs and " +
+                    network.getPlan().getNumOutputs() + " outputs, but the dataset has " + m_dataset.getInputCount() +
+                    " inputs and " + m_dataset.getTargetCount() + " targets.");
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.bateman.richard.evonn.lib.data;
+
+import java.nio.Buffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A dataset holding each input and target column in its own buffer of primitive values:  a {@link DoubleBuffer} or
+ * a {@link FloatBuffer}, depending on the precision.  The buffers are either on the heap (see
+ * {@link #allocate(int, int, int, Precision)}), or read-only views of a memory-mapped dataset file (see
+ * {@link DatasetFile#map(java.nio.file.Path)}), whose pages the operating system shares between all threads and
+ * processes mapping the same file.
+ *
+ * Columns are only read with absolute gets, which do not move the buffers' positions, so reads are thread-safe.
+ * The setters are for filling a heap dataset before it is shared, and must not be called after.
+ */
+public class ColumnarDataset implements Dataset {
+    private final int m_sampleCount;
+    private final Precision m_precision;
+    private final Buffer[] m_inputColumns;
+    private final Buffer[] m_targetColumns;
+
+    /**
+     * Creates a dataset over the supplied columns, each holding sampleCount values of the supplied precision.
+     * @param sampleCount
+     * @param precision
+     * @param inputColumns
+     * @param targetColumns
+     */
+    ColumnarDataset(int sampleCount, Precision precision, Buffer[] inputColumns, Buffer[] targetColumns) {
+        m_sampleCount = sampleCount;
+        m_precision = precision;
+        m_inputColumns = inputColumns;
+        m_targetColumns = targetColumns;
+    }
+
+    /**
+     * Creates a dataset on the heap, with every value 0.
+     * @param sampleCount
+     * @param inputCount
+     * @param targetCount
+     * @param precision
+     * @return
+     */
+    public static ColumnarDataset allocate(int sampleCount, int inputCount, int targetCount, Precision precision) {
+        if (sampleCount < 0 || inputCount < 0 || targetCount < 0) {
+            throw new IllegalArgumentException("A dataset can't have a negative number of samples, inputs or targets.");
+        }
+        return new ColumnarDataset(sampleCount, precision,
+                allocateColumns(inputCount, sampleCount, precision), allocateColumns(targetCount, sampleCount, precision));
+    }
+
+    /**
+     * Creates a dataset on the heap from the samples' input and target vectors.
+     * @param inputs The input vector of each sample.  All must be the same length.
+     * @param targets The target vector of each sample.  All must be the same length.
+     * @param precision
+     * @return
+     */
+    public static ColumnarDataset fromRows(List<double[]> inputs, List<double[]> targets, Precision precision) {
+        if (inputs.size() != targets.size()) {
+            throw new IllegalArgumentException("There are " + inputs.size() + " input vectors, but " + targets.size() + " target vectors.");
+        }
+        int sampleCount = inputs.size();
+        int inputCount = (sampleCount > 0) ? inputs.get(0).length : 0;
+        int targetCount = (sampleCount > 0) ? targets.get(0).length : 0;
+        ColumnarDataset dataset = allocate(sampleCount, inputCount, targetCount, precision);
+        for (int s = 0; s < sampleCount; s++) {
+            double[] sampleInputs = inputs.get(s);
+            double[] sampleTargets = targets.get(s);
+            if (sampleInputs.length != inputCount || sampleTargets.length != targetCount) {
+                throw new IllegalArgumentException("Sample " + s + " has " + sampleInputs.length + " inputs and " +
+                        sampleTargets.length + " targets, instead of " + inputCount + " and " + targetCount + ".");
+            }
+            for (int i = 0; i < inputCount; i++) {
+                dataset.setInput(s, i, sampleInputs[i]);
+            }
+            for (int t = 0; t < targetCount; t++) {
+                dataset.setTarget(s, t, sampleTargets[t]);
+            }
+        }
+        return dataset;
+    }
+
+    /**
+     * Creates a dataset on the heap from boxed input and target vectors, such as those passed to
+     * {@link com.bateman.richard.evonn.lib.ann.Network#computeActivation(java.util.ArrayList)}.
+     * @param inputs The input vector of each sample.  All must be the same length.
+     * @param targets The target vector of each sample.  All must be the same length.
+     * @param precision
+     * @return
+     */
+    public static ColumnarDataset fromLists(List<? extends List<Double>> inputs, List<? extends List<Double>> targets, Precision precision) {
+        return fromRows(unbox(inputs), unbox(targets), precision);
+    }
+
+    @Override
+    public int getSampleCount() {
+        return m_sampleCount;
+    }
+
+    @Override
+    public int getInputCount() {
+        return m_inputColumns.length;
+    }
+
+    @Override
+    public int getTargetCount() {
+        return m_targetColumns.length;
+    }
+
+    @Override
+    public Precision getPrecision() {
+        return m_precision;
+    }
+
+    /**
+     * Whether the dataset is backed by a read-only mapping, so its values can't be set.
+     * @return
+     */
+    public boolean isReadOnly() {
+        Buffer[] columns = (m_inputColumns.length > 0) ? m_inputColumns : m_targetColumns;
+        return columns.length > 0 && columns[0].isReadOnly();
+    }
+
+    @Override
+    public void readInputs(int input, int firstSample, int count, double[] destination, int offset) {
+        readColumn(m_inputColumns[input], firstSample, count, destination, offset);
+    }
+
+    @Override
+    public void readTargets(int target, int firstSample, int count, double[] destination, int offset) {
+        readColumn(m_targetColumns[target], firstSample, count, destination, offset);
+    }
+
+    /**
+     * Sets one input of one sample.
+     * @param sample
+     * @param input
+     * @param value
+     */
+    public void setInput(int sample, int input, double value) {
+        writeValue(m_inputColumns[input], sample, value);
+    }
+
+    /**
+     * Sets one target of one sample.
+     * @param sample
+     * @param target
+     * @param value
+     */
+    public void setTarget(int sample, int target, double value) {
+        writeValue(m_targetColumns[target], sample, value);
+    }
+
+    @Override
+    public String toString() {
+        return "Dataset: samples=" + m_sampleCount + ", inputs=" + getInputCount() + ", targets=" + getTargetCount() +
+                ", precision=" + m_precision + (isReadOnly() ? ", read-only" : "");
+    }
+
+    private void readColumn(Buffer column, int firstSample, int count, double[] destination, int offset) {
+        if (firstSample < 0 || count < 0 || firstSample + count > m_sampleCount) {
+            throw new IndexOutOfBoundsException("Samples " + firstSample + " to " + (firstSample + count) +
+                    " are not all in a dataset of " + m_sampleCount + " samples.");
+        }
+        if (column instanceof DoubleBuffer) {
+            ((DoubleBuffer) column).get(firstSample, destination, offset, count);
+        }
+        else {
+            FloatBuffer floats = (FloatBuffer) column;
+            for (int s = 0; s < count; s++) {
+                destination[offset + s] = floats.get(firstSample + s);
+            }
+        }
+    }
+
+    private void writeValue(Buffer column, int sample, double value) {
+        if (column.isReadOnly()) {
+            throw new IllegalStateException("The dataset is mapped read-only, so its values can't be set.");
+        }
+        if (column instanceof DoubleBuffer) {
+            ((DoubleBuffer) column).put(sample, value);
+        }
+        else {
+            ((FloatBuffer) column).put(sample, (float) value);
+        }
+    }
+
+    private static Buffer[] allocateColumns(int columnCount, int sampleCount, Precision precision) {
+        Buffer[] columns = new Buffer[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            columns[c] = (precision == Precision.DOUBLE) ? DoubleBuffer.allocate(sampleCount) : FloatBuffer.allocate(sampleCount);
+        }
+        return columns;
+    }
+
+    private static List<double[]> unbox(List<? extends List<Double>> vectors) {
+        List<double[]> rows = new ArrayList<>(vectors.size());
+        for (List<Double> vector : vectors) {
+            double[] row = new double[vector.size()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = vector.get(i);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,119 @@
+package com.bateman.richard.evonn.lib.data;
+
+/**
+ * A set of supervised samples, each an input vector and a target vector, stored column by column:  all samples'
+ * values of one input (or target) are contiguous.  Reading a feature across a run of samples is then a single copy,
+ * which is the layout {@link com.bateman.richard.evonn.lib.ann.CompiledNetwork#activateBatch(double[], double[], int)}
+ * consumes.
+ *
+ * Datasets are read-only once built, so one instance can be shared by every thread evaluating agents.
+ */
+public interface Dataset {
+    /**
+     * How the values of a dataset are stored.  Float halves the memory (and the size of a dataset file), at the
+     * cost of precision; values are always read as doubles.
+     */
+    enum Precision {
+        FLOAT(Float.BYTES),
+        DOUBLE(Double.BYTES);
+
+        private final int m_bytes;
+
+        Precision(int bytes) {
+            m_bytes = bytes;
+        }
+
+        /**
+         * The number of bytes a value takes.
+         * @return
+         */
+        public int getBytes() {
+            return m_bytes;
+        }
+    }
+
+    /**
+     * The number of samples.
+     * @return
+     */
+    int getSampleCount();
+
+    /**
+     * The number of inputs of each sample.  (Not including the bias)
+     * @return
+     */
+    int getInputCount();
+
+    /**
+     * The number of targets of each sample.
+     * @return
+     */
+    int getTargetCount();
+
+    /**
+     * How the values are stored.
+     * @return
+     */
+    Precision getPrecision();
+
+    /**
+     * Copies one input's values for a run of samples.
+     * @param input The index of the input.
+     * @param firstSample The first sample to read.
+     * @param count The number of samples to read.
+     * @param destination Receives the values.
+     * @param offset The index in destination of the first sample's value.
+     */
+    void readInputs(int input, int firstSample, int count, double[] destination, int offset);
+
+    /**
+     * Copies one target's values for a run of samples.
+     * @param target The index of the target.
+     * @param firstSample The first sample to read.
+     * @param count The number of samples to read.
+     * @param destination Receives the values.
+     * @param offset The index in destination of the first sample's value.
+     */
+    void readTargets(int target, int firstSample, int count, double[] destination, int offset);
+
+    /**
+     * Copies all inputs of a run of samples, column by column:  input i of sample firstSample + b is written to
+     * destination[i * count + b].
+     * @param firstSample
+     * @param count
+     * @param destination Must hold at least getInputCount() * count values.
+     */
+    default void readInputBatch(int firstSample, int count, double[] destination) {
+        for (int i = 0; i < getInputCount(); i++) {
+            readInputs(i, firstSample, count, destination, i * count);
+        }
+    }
+
+    /**
+     * Copies all targets of a run of samples, column by column:  target t of sample firstSample + b is written to
+     * destination[t * count + b].
+     * @param firstSample
+     * @param count
+     * @param destination Must hold at least getTargetCount() * count values.
+     */
+    default void readTargetBatch(int firstSample, int count, double[] destination) {
+        for (int t = 0; t < getTargetCount(); t++) {
+            readTargets(t, firstSample, count, destination, t * count);
+        }
+    }
+
+    /**
+     * Copies the input and target vectors of one sample, for evaluating samples one at a time.
+     * @param sample
+     * @param inputs Receives the sample's inputs, in order.
+     * @param targets Receives the sample's targets, in order.
+     */
+    default void readSample(int sample, double[] inputs, double[] targets) {
+        for (int i = 0; i < getInputCount(); i++) {
+            readInputs(i, sample, 1, inputs, i);
+        }
+        for (int t = 0; t < getTargetCount(); t++) {
+            readTargets(t, sample, 1, targets, t);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.bateman.richard.evonn.lib.data;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes datasets in a binary, columnar file format that can be memory-mapped.
+ *
+ * The file is a 32 byte header followed by the columns, every input column and then every target column, each
+ * holding the values of all samples in order, as little-endian floats or doubles:
+ * >int MAGIC, int VERSION, int bytes per value (4 or 8), int 0 (reserved),
+ *  long sample count, int input count, int target count.
+ *
+ * Mapping a file loads nothing up front:  pages are read on demand, and are shared through the operating system's
+ * page cache by every thread and process mapping the file, so a dataset larger than the heap can be evaluated by
+ * many workers at once.  Each column is mapped separately, so a column may be up to 2 GB.
+ */
+public class DatasetFile {
+    static final int MAGIC = 0x45564453;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+
+    /**
+     * The number of samples of a column written at once.
+     */
+    private static final int WRITE_CHUNK_SAMPLES = 8192;
+
+    /**
+     * Writes the dataset to the supplied file, replacing it if it exists.
+     * @param dataset
+     * @param path
+     * @param precision How to store the values in the file.
+     * @throws IOException
+     */
+    public static void write(Dataset dataset, Path path, Dataset.Precision precision) throws IOException {
+        int sampleCount = dataset.getSampleCount();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(precision.getBytes()).putInt(0);
+            header.putLong(sampleCount).putInt(dataset.getInputCount()).putInt(dataset.getTargetCount());
+            header.flip();
+            writeFully(channel, header);
+
+            double[] values = new double[WRITE_CHUNK_SAMPLES];
+            ByteBuffer chunk = ByteBuffer.allocate(WRITE_CHUNK_SAMPLES * precision.getBytes()).order(ByteOrder.LITTLE_ENDIAN);
+            int columnCount = dataset.getInputCount() + dataset.getTargetCount();
+            for (int c = 0; c < columnCount; c++) {
+                for (int first = 0; first < sampleCount; first += WRITE_CHUNK_SAMPLES) {
+                    int count = Math.min(WRITE_CHUNK_SAMPLES, sampleCount - first);
+                    if (c < dataset.getInputCount()) {
+                        dataset.readInputs(c, first, count, values, 0);
+                    }
+                    else {
+                        dataset.readTargets(c - dataset.getInputCount(), first, count, values, 0);
+                    }
+                    chunk.clear();
+                    for (int s = 0; s < count; s++) {
+                        if (precision == Dataset.Precision.DOUBLE) chunk.putDouble(values[s]);
+                        else chunk.putFloat((float) values[s]);
+                    }
+                    chunk.flip();
+                    writeFully(channel, chunk);
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the supplied dataset file read-only.  The returned dataset stays valid after the file is closed, and
+     * can be shared by any number of threads.
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static ColumnarDataset map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) throw new IOException("Not a dataset file: " + path);
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) throw new IOException("Not a dataset file: " + path);
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException("Unsupported dataset file version: " + version);
+            int bytesPerValue = header.getInt();
+            Dataset.Precision precision;
+            if (bytesPerValue == Dataset.Precision.DOUBLE.getBytes()) precision = Dataset.Precision.DOUBLE;
+            else if (bytesPerValue == Dataset.Precision.FLOAT.getBytes()) precision = Dataset.Precision.FLOAT;
+            else throw new IOException("Invalid dataset value size: " + bytesPerValue);
+            header.getInt();
+            long sampleCount = header.getLong();
+            int inputCount = header.getInt();
+            int targetCount = header.getInt();
+            if (sampleCount < 0 || inputCount < 0 || targetCount < 0) throw new IOException("Invalid dataset file header: " + path);
+
+            long columnBytes = sampleCount * bytesPerValue;
+            if (columnBytes > Integer.MAX_VALUE) {
+                throw new IOException("The dataset's columns are " + columnBytes + " bytes, which is more than can be mapped at once.");
+            }
+            long expectedSize = HEADER_BYTES + columnBytes * ((long) inputCount + targetCount);
+            if (channel.size() < expectedSize) {
+                throw new IOException("The dataset file is truncated:  expected " + expectedSize + " bytes, but found " + channel.size() + ".");
+            }
+
+            Buffer[] inputColumns = new Buffer[inputCount];
+            Buffer[] targetColumns = new Buffer[targetCount];
+            long offset = HEADER_BYTES;
+            for (int c = 0; c < inputCount + targetCount; c++, offset += columnBytes) {
+                MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, offset, columnBytes);
+                bytes.order(ByteOrder.LITTLE_ENDIAN);
+                Buffer column = (precision == Dataset.Precision.DOUBLE) ? bytes.asDoubleBuffer() : bytes.asFloatBuffer();
+                if (c < inputCount) inputColumns[c] = column;
+                else targetColumns[c - inputCount] = column;
+            }
+            return new ColumnarDataset((int) sampleCount, precision, inputColumns, targetColumns);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
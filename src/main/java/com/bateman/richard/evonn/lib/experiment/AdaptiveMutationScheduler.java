@@ -0,0 +1,111 @@
+package com.bateman.richard.evonn.lib.experiment;
+
+import java.util.Arrays;
+
+/**
+ * Reweights the operators of a {@link MutationOperatorRegistry} by their measured payoff, as a multi-armed bandit:
+ * each operator is an arm, and its payoff is the fitness improvement its offspring achieved per millisecond spent
+ * evaluating them (the evaluations' elapsed time, which is the one cost measurable the same way whether agents are
+ * evaluated serially, on worker threads, on virtual threads or on remote workers).  Operators that buy more fitness for the same evaluation budget are chosen more often.
+ *
+ * Payoffs are summed with exponential decay, so the scheduler follows the search as the most productive operator
+ * changes (e.g. adding nodes early on, and tuning later).  Each operator's score is its decayed payoff rate plus an
+ * upper-confidence exploration bonus, so rarely tried operators keep being tried; every enabled operator also keeps
+ * a minimum share of the distribution.  Operators disabled in the registry are neither reweighted nor chosen, and
+ * whether an operator is enabled is read from the registry at every update, so it may change during a run.
+ * All methods are thread-safe.
+ */
+public class AdaptiveMutationScheduler {
+    private final MutationOperatorRegistry m_registry;
+    private final double m_decay;
+    private final double m_minimumShare;
+    private final double m_exploration;
+
+    private double[] m_improvement = new double[0];
+    private double[] m_evaluationMillis = new double[0];
+    private double[] m_trials = new double[0];
+
+    /**
+     * Creates a scheduler for the operators of the registry.
+     * @param registry
+     * @param decay The factor by which older payoffs are discounted at each update, from 0 (forget at once) to 1 (never).
+     * @param minimumShare The smallest probability any enabled operator is given.
+     * @param exploration The weight of the exploration bonus, relative to the best payoff rate.
+     */
+    public AdaptiveMutationScheduler(MutationOperatorRegistry registry, double decay, double minimumShare, double exploration) {
+        m_registry = registry;
+        m_decay = decay;
+        m_minimumShare = minimumShare;
+        m_exploration = exploration;
+    }
+
+    /**
+     * Records the payoff of one application of an operator.
+     * @param operator The operator's index in the registry.
+     * @param fitnessImprovement How much fitter the offspring became than the agent it was mutated from (0 if not at all).
+     * @param evaluationMillis The elapsed time spent evaluating the offspring, in milliseconds.
+     */
+    public synchronized void recordPayoff(int operator, double fitnessImprovement, double evaluationMillis) {
+        ensureCapacity();
+        m_improvement[operator] += Math.max(0, fitnessImprovement);
+        m_evaluationMillis[operator] += Math.max(0, evaluationMillis);
+        m_trials[operator]++;
+        if (fitnessImprovement > 0) {
+            m_registry.recordSuccess(operator);
+        }
+    }
+
+    /**
+     * Sets the registry's weights from the payoffs recorded so far, then decays the payoffs.
+     */
+    public synchronized void updateWeights() {
+        ensureCapacity();
+        int count = m_trials.length;
+        boolean[] enabled = new boolean[count];
+        int enabledCount = 0;
+        double totalTrials = 0;
+        double bestRate = 0;
+        double[] rates = new double[count];
+        for (int i = 0; i < count; i++) {
+            enabled[i] = m_registry.isEnabled(i);
+            if (!enabled[i]) continue;
+            enabledCount++;
+            totalTrials += m_trials[i];
+            rates[i] = (m_evaluationMillis[i] > 0) ? m_improvement[i] / m_evaluationMillis[i] : 0;
+            bestRate = Math.max(bestRate, rates[i]);
+        }
+        if (enabledCount == 0 || totalTrials == 0) return;
+
+        // Payoff rates are in fitness per millisecond, so normalize them before adding the exploration bonus.
+        double[] scores = new double[count];
+        double scoreTotal = 0;
+        for (int i = 0; i < count; i++) {
+            if (!enabled[i]) continue;
+            double normalizedRate = (bestRate > 0) ? rates[i] / bestRate : 0;
+            double bonus = m_exploration * Math.sqrt(Math.log(1 + totalTrials) / (1 + m_trials[i]));
+            scores[i] = normalizedRate + bonus;
+            scoreTotal += scores[i];
+        }
+
+        double sharedShare = Math.max(0, 1 - enabledCount * m_minimumShare);
+        for (int i = 0; i < count; i++) {
+            if (!enabled[i]) continue;
+            double share = m_minimumShare + ((scoreTotal > 0) ? sharedShare * scores[i] / scoreTotal : sharedShare / enabledCount);
+            m_registry.setWeight(i, share);
+            m_improvement[i] *= m_decay;
+            m_evaluationMillis[i] *= m_decay;
+            m_trials[i] *= m_decay;
+        }
+    }
+
+    /**
+     * Starts tracking operators registered since the last call.
+     */
+    private void ensureCapacity() {
+        int size = m_registry.size();
+        if (m_trials.length == size) return;
+        m_improvement = Arrays.copyOf(m_improvement, size);
+        m_evaluationMillis = Arrays.copyOf(m_evaluationMillis, size);
+        m_trials = Arrays.copyOf(m_trials, size);
+    }
+}
@@ -11,6 +11,7 @@ public class Agent {
     private final Network m_network;
     private int m_age;
     private double m_fitnessScore;
+    private int m_speciesId = -1;
 
     public Agent(Network network) {
         m_network=network;
@@ -49,6 +50,18 @@ public class Agent {
         m_fitnessScore = fitnessScore;
     }
 
+    /**
+     * The id of the species this agent was last assigned to, or -1 if it has never been assigned one.
+     * @return
+     */
+    public int getSpeciesId() {
+        return m_speciesId;
+    }
+
+    public void setSpeciesId(int speciesId) {
+        m_speciesId = speciesId;
+    }
+
     public Agent deepCopy() {
         Network n = m_network.copy();
         Agent a = new Agent(n);
@@ -56,6 +69,28 @@ public class Agent {
         return a;
     }
 
+    /**
+     * Overwrites this agent with a copy of the other agent, reusing this agent's network
+     * (see {@link Network#copyFrom(Network)}).  Like {@link #deepCopy()}, the fitness is copied and the age is not.
+     * @param other
+     */
+    public void copyFrom(Agent other) {
+        m_network.copyFrom(other.m_network);
+        m_fitnessScore = other.m_fitnessScore;
+        m_age = 0;
+    }
+
+    /**
+     * Gives this agent's network the topology of the other agent's network, leaving the weights to be
+     * overwritten by the caller (see {@link Network#copyTopologyFrom(Network)}).  Fitness and age are reset.
+     * @param other
+     */
+    public void copyTopologyFrom(Agent other) {
+        m_network.copyTopologyFrom(other.m_network);
+        m_fitnessScore = 0;
+        m_age = 0;
+    }
+
     @Override
     public String toString() {
         return "Id#" + m_network.getId() + ", F=" + m_fitnessScore;
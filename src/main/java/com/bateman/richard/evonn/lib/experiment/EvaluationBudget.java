@@ -0,0 +1,149 @@
+package com.bateman.richard.evonn.lib.experiment;
+
+/**
+ * Lets a fitness function stop evaluating an agent early, once the agent provably cannot score well enough
+ * to be preserved into the next generation.
+ *
+ * While a pool is being evaluated, the budget tracks the best scores seen so far.  The selection threshold is
+ * the NextGenNumToPreserve-th best of those; an agent whose best achievable score cannot beat it would not be kept
+ * as an elite, so a fitness function that accumulates error sample by sample can abort with a partial score.
+ * The budget also accounts for the samples evaluated and the samples saved by aborting, and tells the fitness
+ * function how many samples to use when the pool is evaluated by successive halving.
+ */
+public class EvaluationBudget {
+    private final double[] m_topScores;
+    private int m_topCount;
+
+    private boolean m_aborted;
+    private int m_sampleLimit = Integer.MAX_VALUE;
+    private long m_samplesEvaluated;
+    private long m_samplesSaved;
+    private int m_abortCount;
+
+    /**
+     * Creates a budget whose threshold is the numToPreserve-th best score seen.
+     * @param numToPreserve
+     */
+    public EvaluationBudget(int numToPreserve) {
+        m_topScores = new double[Math.max(1, numToPreserve)];
+    }
+
+    /**
+     * The score an agent must beat to be among the agents preserved into the next generation,
+     * or negative infinity if not enough agents have been evaluated yet to know.
+     * @return
+     */
+    public double getThreshold() {
+        return (m_topCount < m_topScores.length) ? Double.NEGATIVE_INFINITY : m_topScores[m_topScores.length - 1];
+    }
+
+    /**
+     * The number of samples the current agent should be evaluated on.  When the pool is evaluated by successive
+     * halving this may be a small subset of the samples, and the fitness function should evaluate the first
+     * getSampleLimit() samples only (scoring by a per-sample average, so scores on different subset sizes compare).
+     * Integer.MAX_VALUE means all samples.
+     * @return
+     */
+    public int getSampleLimit() {
+        return m_sampleLimit;
+    }
+
+    /**
+     * Returns true if an agent whose final score can be no better than bestAchievableScore could still
+     * be preserved into the next generation.  If this returns false, the fitness function should call abort.
+     * @param bestAchievableScore An upper bound on the agent's final score.
+     * @return
+     */
+    public boolean canStillQualify(double bestAchievableScore) {
+        return bestAchievableScore > getThreshold();
+    }
+
+    /**
+     * Records that the agent's evaluation ran to completion on the given number of samples.
+     * @param samplesEvaluated
+     */
+    public void recordSamples(int samplesEvaluated) {
+        m_samplesEvaluated += samplesEvaluated;
+    }
+
+    /**
+     * Stops evaluating the current agent, and assigns it a partial score.
+     * The partial score should not exceed the best score the agent could still have achieved,
+     * so that the agent ranks below the selection threshold.
+     * @param a The agent being evaluated.
+     * @param partialScore The score to assign.
+     * @param samplesEvaluated The number of samples evaluated before aborting.
+     * @param samplesSkipped The number of samples that no longer need to be evaluated.
+     */
+    public void abort(Agent a, double partialScore, int samplesEvaluated, int samplesSkipped) {
+        a.setFitnessScore(partialScore);
+        m_aborted = true;
+        m_abortCount++;
+        m_samplesEvaluated += samplesEvaluated;
+        m_samplesSaved += samplesSkipped;
+    }
+
+    /**
+     * Whether the current agent's evaluation was aborted (so its fitness is only a partial score).
+     * @return
+     */
+    public boolean isAborted() {
+        return m_aborted;
+    }
+
+    /**
+     * The total number of samples evaluated through this budget.
+     * @return
+     */
+    public long getSamplesEvaluated() {
+        return m_samplesEvaluated;
+    }
+
+    /**
+     * The total number of samples skipped by aborting evaluations.
+     * @return
+     */
+    public long getSamplesSaved() {
+        return m_samplesSaved;
+    }
+
+    /**
+     * The number of evaluations aborted.
+     * @return
+     */
+    public int getAbortCount() {
+        return m_abortCount;
+    }
+
+    /**
+     * Prepares the budget for the next agent.
+     * @param sampleLimit The number of samples the agent should be evaluated on.
+     */
+    void beginAgent(int sampleLimit) {
+        m_aborted = false;
+        m_sampleLimit = sampleLimit;
+    }
+
+    /**
+     * Feeds an agent's final score into the selection threshold.  Aborted agents are below the threshold,
+     * so they never change it.
+     * @param score
+     */
+    void recordScore(double score) {
+        if (m_aborted) return;
+        int position = m_topCount;
+        if (position == m_topScores.length) {
+            if (score <= m_topScores[position - 1]) return;
+            position--;
+        }
+        else {
+            m_topCount++;
+        }
+        // Insertion sort, best score first.
+        while (position > 0 && m_topScores[position - 1] < score) {
+            m_topScores[position] = m_topScores[position - 1];
+            position--;
+        }
+        m_topScores[position] = score;
+    }
+}
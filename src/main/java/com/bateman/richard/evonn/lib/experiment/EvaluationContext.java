@@ -0,0 +1,123 @@
+package com.bateman.richard.evonn.lib.experiment;
+
+import com.bateman.richard.evonn.lib.ann.CompiledNetwork;
+import com.bateman.richard.math.FastRandom;
+
+/**
+ * Everything a fitness function needs to evaluate one agent, handed to
+ * {@link ExperimentBase#EvaluateFitness(EvaluationContext)}:  the agent, its compiled network, its evaluation budget,
+ * input and output arrays sized for the network, scratch space and a random number generator.
+ *
+ * Contexts are created once and reused for evaluation after evaluation, and a context is only ever used by one
+ * evaluation at a time, so a fitness function that keeps all of its working state in the context allocates nothing
+ * and is thread-safe without locking.  Experiments needing more state (e.g. a simulated environment) can extend
+ * this class, and return their subclass from {@link ExperimentBase#createEvaluationContext()}.
+ */
+public class EvaluationContext {
+    private final double[] m_inputs;
+    private final double[] m_outputs;
+    private final FastRandom m_random;
+    private double[] m_scratch = new double[0];
+
+    private Agent m_agent;
+    private CompiledNetwork m_network;
+    private EvaluationBudget m_budget;
+
+    /**
+     * Creates a context for networks with the supplied numbers of inputs and outputs.
+     * @param numInputs
+     * @param numOutputs
+     * @param seed The seed of the context's random number generator.
+     */
+    public EvaluationContext(int numInputs, int numOutputs, long seed) {
+        m_inputs = new double[numInputs];
+        m_outputs = new double[numOutputs];
+        m_random = new FastRandom(seed);
+    }
+
+    /**
+     * The agent being evaluated.  Assign its fitness with {@link Agent#setFitnessScore(double)}.
+     * @return
+     */
+    public Agent getAgent() {
+        return m_agent;
+    }
+
+    /**
+     * The compiled form of the agent's network, with its weights up to date.
+     * @return
+     */
+    public CompiledNetwork getNetwork() {
+        return m_network;
+    }
+
+    /**
+     * The budget the evaluation may be aborted with, and which tells it how many samples to use.
+     * @return
+     */
+    public EvaluationBudget getBudget() {
+        return m_budget;
+    }
+
+    /**
+     * An array of one element per network input, to fill and pass to {@link CompiledNetwork#activate(double[], double[])}.
+     * @return
+     */
+    public double[] getInputs() {
+        return m_inputs;
+    }
+
+    /**
+     * An array of one element per network output, to receive the network's activations.
+     * @return
+     */
+    public double[] getOutputs() {
+        return m_outputs;
+    }
+
+    /**
+     * This context's own random number generator, never shared with another thread.  Reseeded before every
+     * evaluation from a seed the experiment draws for that evaluation, so a seeded run gives each evaluation the same
+     * random numbers however evaluations are spread over contexts and threads (steady state aside, whose
+     * evaluations depend on the order they finish in).
+     * @return
+     */
+    public FastRandom getRandom() {
+        return m_random;
+    }
+
+    /**
+     * Returns a scratch array of at least the supplied length.  The same array is returned on every call unless
+     * a longer one is requested, so its contents survive from one evaluation to the next until then.
+     * @param minimumLength
+     * @return
+     */
+    public double[] getScratch(int minimumLength) {
+        if (m_scratch.length < minimumLength) {
+            m_scratch = new double[minimumLength];
+        }
+        return m_scratch;
+    }
+
+    /**
+     * Prepares the context for evaluating the agent.
+     * @param agent
+     * @param budget
+     * @param seed The seed of the random number generator for this evaluation.
+     */
+    void bind(Agent agent, EvaluationBudget budget, long seed) {
+        m_agent = agent;
+        m_network = agent.getNetwork().getCompiled();
+        m_budget = budget;
+        m_random.setSeed(seed);
+    }
+
+    /**
+     * Releases the agent evaluated last, so the context does not keep it alive.
+     */
+    void unbind() {
+        m_agent = null;
+        m_network = null;
+        m_budget = null;
+    }
+}
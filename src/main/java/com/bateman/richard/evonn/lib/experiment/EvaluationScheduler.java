@@ -0,0 +1,204 @@
+package com.bateman.richard.evonn.lib.experiment;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs a batch of items of very different costs (such as evaluations of agents whose networks differ greatly in size)
+ * on a work-stealing pool, keeping every thread busy until the batch is done.
+ *
+ * The items are ordered most costly first, and the batch is split recursively at the midpoint of its estimated cost,
+ * until each task holds about 1 / (threads * TASKS_PER_THREAD) of the total cost, or a single item.  A costly item
+ * thus becomes a task of its own, started early, while cheap items are grouped so scheduling costs little.
+ * Threads that run out of work steal the largest remaining halves from the others, which evens out any error in
+ * the estimates.
+ *
+ * The scheduler measures how long each thread spends running items, so its utilization (the share of the batches'
+ * wall time it was busy) can be reported.  Utilization near 100% on every thread means the work scales with the
+ * thread count.  Batches must not be run concurrently.
+ */
+public class EvaluationScheduler {
+    /**
+     * The number of tasks a batch is split into per thread, so that stealing can even out misestimated costs.
+     */
+    public static final int TASKS_PER_THREAD = 4;
+
+    /**
+     * The work done by one thread since the statistics were last reset.
+     */
+    private static class ThreadStatistics {
+        private long m_busyNanos;
+        private long m_taskCount;
+        private long m_itemCount;
+    }
+
+    private final ForkJoinPool m_pool;
+    private final ConcurrentHashMap<String, ThreadStatistics> m_threadStatistics = new ConcurrentHashMap<>();
+    private long m_wallNanos;
+    private long m_batchCount;
+
+    /**
+     * Creates a scheduler with its own pool of threads.
+     * @param threadCount The number of threads, or 0 for one per available processor.
+     */
+    public EvaluationScheduler(int threadCount) {
+        m_pool = new ForkJoinPool((threadCount > 0) ? threadCount : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * The number of threads items are run on.
+     * @return
+     */
+    public int getThreadCount() {
+        return m_pool.getParallelism();
+    }
+
+    /**
+     * Runs the task for every item from 0 to costs.length - 1, and returns when all have finished.
+     * @param costs The estimated cost of each item, in any unit.  Only their relative sizes matter.
+     * @param task Runs one item.  Called concurrently from the scheduler's threads.
+     */
+    public void run(double[] costs, IntConsumer task) {
+        int count = costs.length;
+        if (count == 0) return;
+
+        // Order the items most costly first, and sum their costs, so a range's cost is a difference of two sums.
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(costs[b], costs[a]));
+        int[] items = new int[count];
+        double[] cumulativeCost = new double[count + 1];
+        for (int i = 0; i < count; i++) {
+            items[i] = order[i];
+            cumulativeCost[i + 1] = cumulativeCost[i] + Math.max(0, costs[items[i]]);
+        }
+        double grain = cumulativeCost[count] / ((double) getThreadCount() * TASKS_PER_THREAD);
+
+        long start = System.nanoTime();
+        m_pool.invoke(new BatchTask(items, cumulativeCost, grain, task, 0, count));
+        synchronized (this) {
+            m_wallNanos += System.nanoTime() - start;
+            m_batchCount++;
+        }
+    }
+
+    /**
+     * The mean utilization of the threads across all batches since the statistics were last reset, from 0 to 1.
+     * @return
+     */
+    public synchronized double getUtilization() {
+        if (m_wallNanos == 0) return 0;
+        long busyNanos = 0;
+        for (ThreadStatistics statistics : m_threadStatistics.values()) {
+            synchronized (statistics) {
+                busyNanos += statistics.m_busyNanos;
+            }
+        }
+        return (double) busyNanos / ((double) m_wallNanos * getThreadCount());
+    }
+
+    /**
+     * Forgets the work done so far.
+     */
+    public synchronized void resetStatistics() {
+        m_threadStatistics.clear();
+        m_wallNanos = 0;
+        m_batchCount = 0;
+    }
+
+    /**
+     * Stops the scheduler's threads.  No batch may be run afterwards.
+     */
+    public void shutdown() {
+        m_pool.shutdown();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder(String.format("Evaluation scheduler: threads=%d, batches=%d, wall=%.1f ms, utilization=%.1f%%",
+                getThreadCount(), m_batchCount, m_wallNanos / 1e6, 100 * getUtilization()));
+        for (Map.Entry<String, ThreadStatistics> entry : new TreeMap<>(m_threadStatistics).entrySet()) {
+            ThreadStatistics statistics = entry.getValue();
+            synchronized (statistics) {
+                sb.append(String.format("%n  %s: utilization=%.1f%%, tasks=%d, items=%d", entry.getKey(),
+                        (m_wallNanos == 0) ? 0 : 100.0 * statistics.m_busyNanos / m_wallNanos,
+                        statistics.m_taskCount, statistics.m_itemCount));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Records that the calling thread ran a task of the supplied number of items, in the supplied time.
+     */
+    private void recordTask(int itemCount, long busyNanos) {
+        ThreadStatistics statistics = m_threadStatistics.computeIfAbsent(Thread.currentThread().getName(), name -> new ThreadStatistics());
+        synchronized (statistics) {
+            statistics.m_busyNanos += busyNanos;
+            statistics.m_taskCount++;
+            statistics.m_itemCount += itemCount;
+        }
+    }
+
+    /**
+     * Runs the items [from, to) of a batch, splitting them into two tasks of about equal cost while they cost
+     * more than the grain.
+     */
+    private class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] m_items;
+        private final double[] m_cumulativeCost;
+        private final double m_grain;
+        private final transient IntConsumer m_task;
+        private final int m_from;
+        private final int m_to;
+
+        private BatchTask(int[] items, double[] cumulativeCost, double grain, IntConsumer task, int from, int to) {
+            m_items = items;
+            m_cumulativeCost = cumulativeCost;
+            m_grain = grain;
+            m_task = task;
+            m_from = from;
+            m_to = to;
+        }
+
+        @Override
+        protected void compute() {
+            double cost = m_cumulativeCost[m_to] - m_cumulativeCost[m_from];
+            if (m_to - m_from > 1 && cost > m_grain) {
+                int split = findCostMidpoint();
+                invokeAll(new BatchTask(m_items, m_cumulativeCost, m_grain, m_task, m_from, split),
+                        new BatchTask(m_items, m_cumulativeCost, m_grain, m_task, split, m_to));
+                return;
+            }
+            long start = System.nanoTime();
+            for (int i = m_from; i < m_to; i++) {
+                m_task.accept(m_items[i]);
+            }
+            recordTask(m_to - m_from, System.nanoTime() - start);
+        }
+
+        /**
+         * Returns the index that splits [from, to) into two non-empty ranges of as nearly equal cost as possible.
+         */
+        private int findCostMidpoint() {
+            double midpoint = (m_cumulativeCost[m_from] + m_cumulativeCost[m_to]) / 2;
+            int low = m_from + 1;
+            int high = m_to - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (m_cumulativeCost[middle] < midpoint) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+    }
+}
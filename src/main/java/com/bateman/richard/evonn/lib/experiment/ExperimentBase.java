@@ -1,14 +1,34 @@
 package com.bateman.richard.evonn.lib.experiment;
 
-import com.bateman.richard.evonn.lib.ann.Link;
+import com.bateman.richard.evonn.lib.ann.EvaluationPlan;
 import com.bateman.richard.evonn.lib.ann.Network;
+import com.bateman.richard.evonn.lib.ann.NetworkCrossover;
+import com.bateman.richard.evonn.lib.island.IslandMigrator;
+import com.bateman.richard.evonn.lib.remote.EvaluationMaster;
+import com.bateman.richard.evonn.lib.remote.RemoteFitnessFunction;
+import com.bateman.richard.evonn.lib.remote.WorkerMetrics;
+import com.bateman.richard.math.AliasTable;
 import com.bateman.richard.math.RNG;
 
 import java.io.Console;
+import java.io.IOException;
+import java.lang.reflect.Method;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 /**
  * An abstract base class from which to extend to create an experiment.
@@ -48,6 +68,85 @@ public abstract class ExperimentBase {
      */
     protected int m_numOutputs;
 
+    /**
+     * Remembers the fitness of unchanged networks.  Null unless enabled in the configuration.
+     */
+    protected FitnessCache m_fitnessCache;
+
+    /**
+     * Clusters the pools' best agents into species.  Null unless enabled in the configuration.
+     */
+    protected SpeciationEngine m_speciationEngine;
+
+    /**
+     * The mutation operators structural mutations are chosen from.
+     */
+    protected MutationOperatorRegistry m_mutationOperatorRegistry;
+
+    /**
+     * Reweights the mutation operators by their payoff.  Null unless enabled in the configuration.
+     */
+    protected AdaptiveMutationScheduler m_mutationScheduler;
+
+    /**
+     * Exchanges migrants with the other islands, when this experiment runs as one island of an island model.
+     * Null otherwise.
+     */
+    protected IslandMigrator m_islandMigrator;
+
+    /**
+     * Evaluates agents on remote workers, when set.  Null to evaluate agents in this process.
+     */
+    protected EvaluationMaster m_evaluationMaster;
+
+    /**
+     * The number of samples evaluated, and saved by early termination, as reported by fitness functions
+     * through their evaluation budget.
+     */
+    private long m_samplesEvaluated;
+    private long m_samplesSaved;
+    private long m_evaluationsAborted;
+
+    /**
+     * The worker threads evolving pools in steady state, or producing offspring in parallel.
+     * Only exists while such an experiment runs.
+     */
+    private ExecutorService m_workerExecutor;
+
+    /**
+     * Creates the virtual threads agents are evaluated on, when enabled.
+     */
+    private static final ThreadFactory VIRTUAL_EVALUATION_THREADS = Thread.ofVirtual().name("Evaluation-", 0).factory();
+
+    /**
+     * Limits the number of evaluations in progress on virtual threads.  Null unless enabled in the configuration.
+     */
+    private Semaphore m_virtualThreadPermits;
+
+    /**
+     * Evaluates agents in parallel, in cost-balanced tasks.  Null unless enabled in the configuration, and
+     * created anew for each call of {@link #run()}, which shuts it down when it returns.
+     */
+    protected EvaluationScheduler m_evaluationScheduler;
+
+    /**
+     * The evaluation contexts not in use.  An evaluation takes one (or creates one if none is left) and puts it back
+     * when it is done, so there are only ever as many contexts as evaluations that have run at the same time.
+     * Pooled rather than kept per thread, since virtual threads only ever run one evaluation each.
+     */
+    private final ConcurrentLinkedQueue<EvaluationContext> m_idleEvaluationContexts = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The fitness taken off per evaluated link, adjusted each round to keep the population within its target
+     * complexity.  0 unless a target is configured.
+     */
+    private volatile double m_complexityPenaltyPerLink;
+
+    /**
+     * Samples ranks for rank-roulette selection.  Rebuilt when the pool size changes.
+     */
+    private volatile AliasTable m_rankSelectionTable;
+
     /**
      * The best performing agents that this experiment has seen.
      */
@@ -55,51 +154,251 @@ public abstract class ExperimentBase {
         return m_bestAgentsAllTime;
     }
 
+    /**
+     * The mutation operators this experiment chooses from.  Register custom operators here, after initializing
+     * the experiment with its configuration.
+     * @return
+     */
+    public MutationOperatorRegistry getMutationOperatorRegistry() {
+        return m_mutationOperatorRegistry;
+    }
+
+    /**
+     * A method that should test how this agent performs in the scenario, and assigns it a fitness score.
+     * Experiments must override this method or one of the other EvaluateFitness methods;
+     * {@link #initializeWithConfig(ExperimentConfig)} fails otherwise.
+     * @param a
+     */
+    protected void EvaluateFitness(Agent a) {
+        throw new IllegalStateException("The experiment does not override any EvaluateFitness method.");
+    }
+
     /**
      * A method that should test how this agent performs in the scenario, and assigns it a fitness score.
+     * Fitness functions that accumulate their score over many samples should override this method, and use the
+     * budget to abort evaluating agents that can no longer beat the pool's selection threshold.
+     * By default, evaluates the agent fully with {@link #EvaluateFitness(Agent)}.
      * @param a
+     * @param budget
+     */
+    protected void EvaluateFitness(Agent a, EvaluationBudget budget) {
+        EvaluateFitness(a);
+    }
+
+    /**
+     * A method that should test how the context's agent performs in the scenario, and assign it a fitness score.
+     * This is the method every evaluation goes through.  A fitness function that keeps its working state in the
+     * context, rather than allocating it or sharing it between calls, allocates nothing per evaluation and may be
+     * called from several threads at once.  By default, calls {@link #EvaluateFitness(Agent, EvaluationBudget)}.
+     * @param context
+     */
+    protected void EvaluateFitness(EvaluationContext context) {
+        EvaluateFitness(context.getAgent(), context.getBudget());
+    }
+
+    /**
+     * Creates a context for {@link #EvaluateFitness(EvaluationContext)}.  Called whenever an evaluation starts and no
+     * idle context is left, so about once per thread evaluating agents.  Override this to return a subclass holding
+     * the experiment's own per-evaluation state.  The context's random number generator is reseeded before every
+     * evaluation, so the seed it is created with does not matter; drawing it from {@link RNG} would only make the
+     * evaluations' random numbers depend on how many contexts happened to be created.
+     * @return
+     */
+    protected EvaluationContext createEvaluationContext() {
+        return new EvaluationContext(m_numInputs, m_numOutputs, 0);
+    }
+
+    /**
+     * The number of samples the fitness function evaluates an agent on.  Fitness functions that honour
+     * {@link EvaluationBudget#getSampleLimit()} should return their sample count, which enables successive halving.
+     * Returns 0 by default, meaning the fitness function can only evaluate agents on all of its samples.
+     * @return
+     */
+    protected int getFitnessSampleCount() {
+        return 0;
+    }
+
+    /**
+     * The total number of samples fitness functions reported evaluating.
+     * @return
+     */
+    public long getSamplesEvaluated() {
+        return m_samplesEvaluated;
+    }
+
+    /**
+     * The total number of samples fitness functions skipped by aborting evaluations early.
+     * @return
+     */
+    public long getSamplesSaved() {
+        return m_samplesSaved;
+    }
+
+    /**
+     * The total number of evaluations aborted early.
+     * @return
+     */
+    public long getEvaluationsAborted() {
+        return m_evaluationsAborted;
+    }
+
+    /**
+     * Runs this experiment as one island of an island model.  Must be called before {@link #run()}.
+     * New innovation ids are taken from a range reserved for this island, so they never clash with the other
+     * islands' when migrants are crossed with local networks.
+     * @param migrator
+     */
+    public void setIslandMigrator(IslandMigrator migrator) {
+        m_islandMigrator = migrator;
+        if (migrator != null) {
+            Network.getInnovationRegistry().setIdRange(migrator.getFirstInnovationId(), migrator.getEndInnovationId());
+        }
+    }
+
+    /**
+     * Evaluates agents on the workers connected to the supplied master, rather than in this process.
+     * Each worker runs {@link #getRemoteFitnessFunction()} of its own instance of the experiment.
+     * Early termination and successive halving do not apply to remote evaluation.  Null to evaluate locally again.
+     * @param master
+     */
+    public void setEvaluationMaster(EvaluationMaster master) {
+        m_evaluationMaster = master;
+    }
+
+    /**
+     * Returns this experiment's fitness function, for a {@link com.bateman.richard.evonn.lib.remote.FitnessWorker}.
+     * The experiment must have been initialized with the same configuration as the master's.
+     * @return
      */
-    protected abstract void EvaluateFitness(Agent a);
+    public RemoteFitnessFunction getRemoteFitnessFunction() {
+        return network -> {
+            Agent a = new Agent(network);
+            EvaluationBudget budget = new EvaluationBudget(1);
+            budget.beginAgent(Integer.MAX_VALUE);
+            evaluateInContext(a, budget);
+            return a.getFitnessScore();
+        };
+    }
 
     public void run(){
         Instant starts = Instant.now();
         if (!m_isInitialized) throw new IllegalStateException("Failed to initialize experiment with a configuration.");
+        if (m_config.RandomSeed != 0)
+        {
+            RNG.setSeed(m_config.RandomSeed);
+        }
+        if (m_config.EnableParallelEvaluation && m_evaluationScheduler == null)
+        {
+            m_evaluationScheduler = new EvaluationScheduler(m_config.EvaluationThreadCount);
+        }
 
         createInitialPool();
         double bestFitness = getBestFitness();
         Instant stops = Instant.now();
         System.out.println("Elapsed MS: " + Duration.between(starts, stops));
         starts = Instant.now();
+        int round = 0;
         while(bestFitness < m_config.DesiredFitness)
         {
             // For each pool, for some number of iterations:
             // >Evaluate the members of the pool
             // >Add the best performers to the list of top performers
-            for (Pool p : m_pools)
+            if (m_config.EnableSteadyState)
             {
-                int numGenerationIterations = m_config.NumGenerationIterations;
-                while (numGenerationIterations > 0)
-                {
-                    EvaluatePool(p);
-                    CreateNextGenForPool(p);
-                    numGenerationIterations--;
-                }
-                // Do one final evaluation.
-                EvaluatePool(p);
-                p.sortAgentsByFitness();
+                evolvePoolsSteadyState();
                 stops = Instant.now();
                 System.out.println("Elapsed MS for Pool Generations: " + Duration.between(starts, stops));
                 starts = Instant.now();
             }
-            bestFitness = GetBestFitness();
+            else if (m_config.EnableParallelOffspring)
+            {
+                evolvePoolsWithParallelOffspring();
+                stops = Instant.now();
+                System.out.println("Elapsed MS for Pool Generations: " + Duration.between(starts, stops));
+                starts = Instant.now();
+            }
+            else
+            {
+                for (Pool p : m_pools)
+                {
+                    int numGenerationIterations = m_config.NumGenerationIterations;
+                    while (numGenerationIterations > 0)
+                    {
+                        evaluatePool(p);
+                        createNextGenForPool(p);
+                        numGenerationIterations--;
+                    }
+                    // Do one final evaluation.
+                    evaluatePool(p);
+                    p.sortAgentsByFitness();
+                    stops = Instant.now();
+                    System.out.println("Elapsed MS for Pool Generations: " + Duration.between(starts, stops));
+                    starts = Instant.now();
+                }
+            }
+            bestFitness = getBestFitness();
+            creditMutationOperators();
+            updateComplexityPenalty();
             // At this point, all the pools have gone through many mutations, breeding, etc.
             // It's time to make some new populations, and eliminate old ones.
-            EliminateWorstPoolsIfNecessary();
-            CreatePoolsWithNewTopologies();
+            speciatePools();
+            eliminateWorstPoolsIfNecessary();
+            Network.getInnovationRegistry().beginGeneration();
+            round++;
+            int immigrantPoolCount = migrateIfDue(round);
+            // Immigrants take the place of some of the new pools, so the pool count stays within its limit.
+            createPoolsWithNewTopologies(m_config.NumNewPoolsToCreate - immigrantPoolCount);
 
             System.out.println("Best fitness is: " + bestFitness);
+            if (m_evaluationsAborted > 0)
+            {
+                System.out.println("Samples evaluated: " + m_samplesEvaluated + ", saved by early termination: " + m_samplesSaved);
+            }
+            if (m_evaluationMaster != null)
+            {
+                for (WorkerMetrics metrics : m_evaluationMaster.getWorkerMetrics())
+                {
+                    System.out.println(metrics);
+                }
+            }
+            if (m_evaluationScheduler != null)
+            {
+                System.out.println(m_evaluationScheduler);
+                m_evaluationScheduler.resetStatistics();
+            }
             starts = Instant.now();
         }
+        if (m_workerExecutor != null)
+        {
+            m_workerExecutor.shutdown();
+            m_workerExecutor = null;
+        }
+        if (m_evaluationScheduler != null)
+        {
+            m_evaluationScheduler.shutdown();
+            m_evaluationScheduler = null;
+        }
+    }
+
+    /**
+     * The amount by which the agent's fitness is reduced for its complexity, once it has been scored.
+     * By default, the current penalty per link times the number of links its compiled network evaluates, so the
+     * penalty tracks evaluation cost.  Subclasses may override this to penalize complexity differently
+     * (for instance by the time an evaluation took); it must be thread-safe.
+     * @param a
+     * @return
+     */
+    protected double getComplexityPenalty(Agent a) {
+        if (m_complexityPenaltyPerLink == 0) return 0;
+        return m_complexityPenaltyPerLink * a.getNetwork().getCompiled().getPlan().getLinkCount();
+    }
+
+    /**
+     * The fitness currently taken off per evaluated link.
+     * @return
+     */
+    public double getComplexityPenaltyPerLink() {
+        return m_complexityPenaltyPerLink;
     }
 
     /**
@@ -107,10 +406,50 @@ public abstract class ExperimentBase {
      * @param config
      */
     protected void initializeWithConfig(ExperimentConfig config) {
+        verifyFitnessFunction();
         m_isInitialized = true;
         m_config = config;
         m_numInputs = config.NumInputs;
         m_numOutputs = config.NumOutputs;
+        Network.getEvaluationPlanCache().setLimits(config.EvaluationPlanCacheMaxEntries, config.EvaluationPlanCacheMaxCost);
+        m_fitnessCache = config.EnableFitnessCache ?
+                new FitnessCache(config.FitnessCacheMaxEntries, config.FitnessCacheMaxReuses) : null;
+        m_speciationEngine = config.EnableSpeciation ? new SpeciationEngine(config) : null;
+        m_virtualThreadPermits = config.EnableVirtualThreadEvaluation ?
+                new Semaphore(Math.max(1, config.VirtualThreadConcurrency)) : null;
+        m_mutationOperatorRegistry = config.createMutationOperatorRegistry();
+        m_mutationScheduler = config.EnableAdaptiveMutation ?
+                new AdaptiveMutationScheduler(m_mutationOperatorRegistry, config.AdaptiveMutationDecay,
+                        config.AdaptiveMutationMinimumShare, config.AdaptiveMutationExploration) : null;
+    }
+
+    /**
+     * Makes sure the experiment overrides one of the EvaluateFitness methods, which is what the abstract method of
+     * an abstract class would otherwise ensure, so that a missing fitness function is reported when the experiment is
+     * initialized rather than at its first evaluation.
+     */
+    private void verifyFitnessFunction() {
+        Class<?>[][] signatures = {
+                {Agent.class}, {Agent.class, EvaluationBudget.class}, {EvaluationContext.class}};
+        for (Class<?> c = getClass(); c != ExperimentBase.class; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                if (!method.getName().equals("EvaluateFitness")) continue;
+                for (Class<?>[] signature : signatures) {
+                    if (Arrays.equals(method.getParameterTypes(), signature)) return;
+                }
+            }
+        }
+        throw new IllegalStateException(getClass().getName() + " does not override any EvaluateFitness method.");
+    }
+
+    /**
+     * Forgets all remembered fitness scores.  Subclasses should call this whenever the environment their
+     * fitness function depends on changes.
+     */
+    protected void invalidateFitnessCache() {
+        if (m_fitnessCache != null) {
+            m_fitnessCache.invalidate();
+        }
     }
 
     /**
@@ -121,6 +460,7 @@ public abstract class ExperimentBase {
         for(int agentIndex = 1; agentIndex <= m_config.PoolSize; agentIndex++)
         {
             Network nn = new Network(m_numInputs, m_numOutputs);
+            nn.setSizeLimits(m_config.MaxNodesPerNetwork, m_config.MaxLinksPerNetwork);
             nn.randomizeWeights();
             Agent a = new Agent(nn);
             p.getAgentsLive().add(a);
@@ -137,181 +477,1004 @@ public abstract class ExperimentBase {
         double bestFitness = Double.MIN_VALUE;
         if(m_bestAgentsAllTime.size() > 0)
         {
-            SortTopPerformersList();
+            sortTopPerformersList();
             bestFitness = m_bestAgentsAllTime.get(0).getFitnessScore();
         }
         return bestFitness;
     }
 
+    /**
+     * Replaces the pool's agents with the next generation.  Every agent of the next generation is written into an
+     * agent recycled from an older generation, so a generation with an unchanged topology allocates nothing.
+     * @param p
+     */
     private void createNextGenForPool(Pool p) {
-        p.sortAgentsByFitness();
+        if (m_config.ParentSelectionType == ExperimentConfig.SelectionType.RANK_ROULETTE)
+        {
+            p.sortAgentsByFitness();
+        }
+        else
+        {
+            // Only the elites need to be found.
+            p.moveFittestToFront(m_config.NextGenNumToPreserve);
+        }
         p.prepareForNextGen();
         // The best agents are preserved
         for(int i = 0; i < m_config.NextGenNumToPreserve; i++)
         {
             Agent elite = p.getAgentsLive().get(i);
-            elite.setAge(elite.getAge() + 1);
-            elite.setFitnessScore(0);
-            p.addAgentToNextGen(elite);
+            Agent eliteCopy = p.addCopyToNextGen(elite);
+            eliteCopy.setAge(elite.getAge() + 1);
+            eliteCopy.setFitnessScore(0);
         }
         // Some agents are bred
         for(int i = 0; i < m_config.NextGenNumToBreed; i++)
         {
-            Agent parent1 = p.getAgentsLive().get((int) RNG.rnd(p.getAgentsLive().size()));
-            Agent parent2 = p.getAgentsLive().get((int) RNG.rnd(p.getAgentsLive().size()));
-            Agent child = BreedTwoAgents(parent1, parent2);
-            child.setFitnessScore(0);
-            p.addAgentToNextGen(child);
+            Agent parent1 = selectParent(p.getAgentsLive());
+            Agent parent2 = selectParent(p.getAgentsLive());
+            Agent child = p.addTopologyCopyToNextGen(parent1);
+            breedTwoAgents(parent1, parent2, child);
         }
         // Some agents are mutated (again, simple mutations)
         for (int i = 0; i < m_config.NextGenNumToMutateSimple; i++)
         {
-            Agent victim = p.getAgentsLive().get((int) RNG.rnd(p.getAgentsLive().size())).deepCopy();
-            MutateAgentSimple(victim);
+            Agent victim = p.addCopyToNextGen(selectParent(p.getAgentsLive()));
+            mutateAgentSimple(victim);
             victim.setFitnessScore(0);
-            p.addAgentToNextGen(victim);
         }
 
         p.makeNextGenLive();
     }
 
-    private void EliminateWorstPoolsIfNecessary()
+    /**
+     * Chooses an agent to breed or mutate, using the configured selection.  For rank-roulette selection,
+     * the agents must be sorted by fitness.
+     * @param agents
+     * @return
+     */
+    private Agent selectParent(ArrayList<Agent> agents)
     {
-        int maxPoolsForCreation = (m_config.MaxPoolCount - m_config.NumNewPoolsToCreate + 1);
-        if (m_pools.Count >= maxPoolsForCreation)
+        switch (m_config.ParentSelectionType)
         {
-            m_pools.Sort(delegate (Pool a, Pool b)
-            {
-                return b.Agents[0].FitnessScore.CompareTo(a.Agents[0].FitnessScore);
-            });
-            while (m_pools.Count >= maxPoolsForCreation)
-            {
-                // Removes the last pool
-                m_pools.RemoveAt(m_pools.Count - 1);
-            }
+            case TOURNAMENT:
+                Agent winner = agents.get((int) RNG.rnd(agents.size()));
+                for (int i = 1; i < m_config.TournamentSize; i++)
+                {
+                    Agent challenger = agents.get((int) RNG.rnd(agents.size()));
+                    if (challenger.getFitnessScore() > winner.getFitnessScore())
+                    {
+                        winner = challenger;
+                    }
+                }
+                return winner;
+            case RANK_ROULETTE:
+                return agents.get(getRankSelectionTable(agents.size()).sample());
+            case UNIFORM:
+            default:
+                return agents.get((int) RNG.rnd(agents.size()));
         }
     }
 
-    private void CreatePoolsWithNewTopologies()
+    /**
+     * Returns the alias table for rank-roulette selection among the supplied number of agents, sorted best first:
+     * the agent at index i has weight (agentCount - i).
+     * @param agentCount
+     * @return
+     */
+    private AliasTable getRankSelectionTable(int agentCount)
     {
-        List<Pool> newPools = new List<Pool>();
-        int poolsToMake = m_config.NumNewPoolsToCreate;
-        while(poolsToMake > 0)
+        AliasTable table = m_rankSelectionTable;
+        if (table == null || table.size() != agentCount)
         {
-            Pool newPool = new Pool();
-            Pool randomSelection = m_pools[RNG.Rnd(m_pools.Count)];
-            Agent bestAgentTemplate = randomSelection.Agents[0].DeepCopy();
-            double selection = RNG.Rnd();
-            if(selection <= 0.40)
-            {
-                bestAgentTemplate.NeuralNetwork.Mutator.MutateNewNode();
-            }
-            else if(selection <= 0.80)
-            {
-                bestAgentTemplate.NeuralNetwork.Mutator.MutateNewLink();
-            }
-            else if(selection <= 0.90)
+            double[] weights = new double[agentCount];
+            for (int i = 0; i < agentCount; i++)
             {
-                bestAgentTemplate.NeuralNetwork.Mutator.MutateDeleteLink();
+                weights[i] = agentCount - i;
             }
-            else
+            table = new AliasTable(weights);
+            m_rankSelectionTable = table;
+        }
+        return table;
+    }
+
+    private void eliminateWorstPoolsIfNecessary()
+    {
+        int maxPoolsForCreation = (m_config.MaxPoolCount - m_config.NumNewPoolsToCreate + 1);
+        if (m_pools.size() >= maxPoolsForCreation)
+        {
+            m_pools.sort((a, b) -> Double.compare(b.getAgentsLive().get(0).getFitnessScore(), a.getAgentsLive().get(0).getFitnessScore()));
+            if (m_speciationEngine != null)
             {
-                bestAgentTemplate.NeuralNetwork.Mutator.MutateDeleteNode();
+                removeWorstPoolsSparingSpecies(maxPoolsForCreation);
             }
-
-            for(int i = 1; i <= m_config.PoolSize; i++)
+            while (m_pools.size() >= maxPoolsForCreation)
             {
-                Agent a = bestAgentTemplate.DeepCopy();
-                if(RNG.Rnd() < 0.5)
-                {
-                    MutateAgentSimple(a);
-                }
-                else
-                {
-                    a.NeuralNetwork.RandomizeWeights();
-                }
-                newPool.Agents.Add(a);
+                // Removes the last pool
+                m_pools.remove(m_pools.size() - 1);
             }
-            newPools.Add(newPool);
-            poolsToMake--;
         }
-        m_pools.AddRange(newPools);
     }
 
-    private void sortTopPerformersList() {
-        m_bestAgentsAllTime.Sort(delegate (Agent a, Agent b)
+    /**
+     * Assigns the best agent of every pool to a species.  Every agent in a pool shares the pool's topology,
+     * so the pool's best agent stands for the whole pool.
+     */
+    private void speciatePools()
+    {
+        if (m_speciationEngine == null) return;
+        ArrayList<Agent> poolChampions = new ArrayList<>(m_pools.size());
+        for (Pool p : m_pools)
         {
-            return b.FitnessScore.CompareTo(a.FitnessScore);
-        });
+            poolChampions.add(p.getAgentsLive().get(0));
+        }
+        m_speciationEngine.speciate(poolChampions);
+        System.out.println("Species: " + m_speciationEngine.getSpecies().size() +
+                ", compatibility threshold: " + m_speciationEngine.getCompatibilityThreshold());
     }
 
-    private void evaluatePool(Pool p)
+    /**
+     * Removes the worst pools (the pools must be sorted best first), but spares the best pool of each species.
+     * @param maxPoolsForCreation
+     */
+    private void removeWorstPoolsSparingSpecies(int maxPoolsForCreation)
     {
-        for(Agent a : p.Agents)
+        HashSet<Integer> speciesSeen = new HashSet<>();
+        ArrayList<Pool> speciesBestPools = new ArrayList<>();
+        for (Pool p : m_pools)
         {
-            evaluateFitness(a);
-            checkEligibilityForBestPerformerList(a);
+            if (speciesSeen.add(p.getAgentsLive().get(0).getSpeciesId()))
+            {
+                speciesBestPools.add(p);
+            }
+        }
+        for (int i = m_pools.size() - 1; i >= 0 && m_pools.size() >= maxPoolsForCreation; i--)
+        {
+            Pool p = m_pools.get(i);
+            if (!speciesBestPools.contains(p))
+            {
+                m_pools.remove(i);
+            }
         }
     }
 
-    private void checkEligibilityForBestPerformerList(Agent a)
+    /**
+     * If this experiment is an island and a migration is due, sends this island's best agents to the other islands,
+     * and turns every agent received from them into a new pool.  Returns the number of pools created.
+     * A failed migration is reported but otherwise ignored, so an island keeps evolving on its own.
+     * @param round The number of rounds completed.
+     * @return
+     */
+    private int migrateIfDue(int round)
     {
-        if (m_bestAgentsAllTime.size() < m_config.BestAgentCount)
-        {
-            m_bestAgentsAllTime.add(a.deepCopy());
-        }
-        else
+        if (m_islandMigrator == null || round % Math.max(1, m_config.MigrationInterval) != 0) return 0;
+        int immigrantPoolCount = 0;
+        try
         {
-            double lowestFitness = m_bestAgentsAllTime.last().getFitnessScore();
-            if(a.getFitnessScore() > lowestFitness)
+            // The best agent list is sorted, best first, by getBestFitness.
+            ArrayList<Network> emigrants = new ArrayList<>();
+            for (int i = 0; i < m_config.MigrantCount && i < m_bestAgentsAllTime.size(); i++)
             {
-                m_bestAgentsAllTime.remove(m_bestAgentsAllTime.size() - 1);
-                m_bestAgentsAllTime.add(a.deepCopy());
-                SortTopPerformersList();
+                emigrants.add(m_bestAgentsAllTime.get(i).getNetwork());
+            }
+            m_islandMigrator.emigrate(emigrants);
+
+            for (Network immigrant : m_islandMigrator.immigrate())
+            {
+                m_pools.add(createPoolFromTemplate(new Agent(immigrant), true));
+                immigrantPoolCount++;
             }
         }
+        catch (IOException e)
+        {
+            System.out.println("Island " + m_islandMigrator.getIslandId() + " failed to migrate: " + e.getMessage());
+        }
+        if (immigrantPoolCount > 0)
+        {
+            System.out.println("Island " + m_islandMigrator.getIslandId() + " received " + immigrantPoolCount + " migrants.");
+        }
+        return immigrantPoolCount;
     }
 
     /**
-     * Performs a mutation that does not affect the topology of the network.
-     * @param a
+     * Credits the mutation operator that created each new pool's topology with the pool's payoff over its first
+     * round:  its best agent's gain over the agent the operator mutated, and the elapsed time spent evaluating the pool's agents
+     * (see {@link AdaptiveMutationScheduler}), excluding the time spent breeding them.
+     * Then reweights the operators.
      */
-    private void mutateAgentSimple(Agent a)
+    private void creditMutationOperators()
     {
-        a.getNetwork().getMutator().mutateWeight();
+        if (m_mutationScheduler == null) return;
+        for (Pool p : m_pools)
+        {
+            int operator = p.getMutationOperator();
+            if (operator < 0) continue;
+            double improvement = p.getAgentsLive().get(0).getFitnessScore() - p.getParentFitness();
+            m_mutationScheduler.recordPayoff(operator, improvement, p.getEvaluationNanos() / 1e6);
+            p.setOrigin(-1, 0);
+        }
+        m_mutationScheduler.updateWeights();
+        System.out.println(m_mutationOperatorRegistry);
     }
 
     /**
-     * Takes two agents (with the same network topology) and breeds a child.
-     * @param a
-     * @param b
-     * @return
+     * Raises the penalty per evaluated link while the live agents evaluate more links, on average, than the target,
+     * and lowers it (down to 0) while they are within it.
      */
-    private Agent breedTwoAgents(Agent a, Agent b){
-        Agent child = a.deepCopy();
-        ArrayList<Link> childLinks = new ArrayList<>(child.getNetwork().getMapIdToAllLinks().values());
+    private void updateComplexityPenalty()
+    {
+        if (m_config.TargetMeanEvaluatedLinks <= 0) return;
+        long linkTotal = 0;
+        int agentCount = 0;
+        for (Pool p : m_pools)
+        {
+            for (Agent a : p.getAgentsLive())
+            {
+                linkTotal += a.getNetwork().getCompiled().getPlan().getLinkCount();
+                agentCount++;
+            }
+        }
+        if (agentCount == 0) return;
+        double meanLinks = (double) linkTotal / agentCount;
+        if (meanLinks > m_config.TargetMeanEvaluatedLinks)
+        {
+            m_complexityPenaltyPerLink += m_config.ComplexityPenaltyStep;
+        }
+        else
+        {
+            m_complexityPenaltyPerLink = Math.max(0, m_complexityPenaltyPerLink - m_config.ComplexityPenaltyStep);
+        }
+        System.out.println(String.format("Mean evaluated links: %.1f, complexity penalty per link: %.3g",
+                meanLinks, m_complexityPenaltyPerLink));
+    }
 
-        for(int l = 0; l < childLinks.size(); l++) {
-            if(RNG.rnd() < 0.5){
-                childLinks.get(l).setWeight(a.getNetwork().getMapIdToAllLinks().get(childLinks.get(l).getId()).getWeight());
+    private void createPoolsWithNewTopologies(int poolsToMake)
+    {
+        int poolCount = Math.max(0, poolsToMake);
+        List<Agent> templates = new ArrayList<>(poolCount);
+        int[] mutationOperators = new int[poolCount];
+        double[] parentFitnesses = new double[poolCount];
+        while(poolsToMake > 0)
+        {
+            Pool randomSelection = m_pools.get((int) RNG.rnd(m_pools.size()));
+            Agent templateSource = randomSelection.getAgentsLive().get(0);
+            if (m_speciationEngine != null && !m_speciationEngine.getSpecies().isEmpty())
+            {
+                // Choose a species first, so every structurally distinct family of networks gets an equal chance.
+                ArrayList<Species> species = m_speciationEngine.getSpecies();
+                templateSource = species.get((int) RNG.rnd(species.size())).getBestMember();
+            }
+            Agent bestAgentTemplate = templateSource.deepCopy();
+            int mutationOperator = -1;
+            if(m_pools.size() > 1 && RNG.rnd() < m_config.NewPoolCrossoverRate)
+            {
+                // Cross with the best agent of another pool, whose topology may differ.
+                // The template takes the topology of the fitter of the two.
+                Agent selectedBest = templateSource;
+                Agent otherBest = m_pools.get((int) RNG.rnd(m_pools.size())).getAgentsLive().get(0);
+                Agent fitter = (otherBest.getFitnessScore() > selectedBest.getFitnessScore()) ? otherBest : selectedBest;
+                Agent lessFit = (fitter == otherBest) ? selectedBest : otherBest;
+                bestAgentTemplate = fitter.deepCopy();
+                NetworkCrossover.byInnovation(fitter.getNetwork(), lessFit.getNetwork(), bestAgentTemplate.getNetwork());
             }
-            else {
-                childLinks.get(l).setWeight(b.getNetwork().getMapIdToAllLinks().get(childLinks.get(l).getId()).getWeight());
+            else
+            {
+                mutationOperator = mutateAgent(bestAgentTemplate);
             }
-        }
 
-        return child;
-    }
+            mutationOperators[templates.size()] = mutationOperator;
+            parentFitnesses[templates.size()] = templateSource.getFitnessScore();
+            templates.add(bestAgentTemplate);
+            poolsToMake--;
+        }
 
-    private void mutateAgent(Agent a){
-        ExperimentConfig.MutationType mutationToPerform = m_config.chooseMutationType();
-        switch(mutationToPerform)
+        // Filling the pools hands out no innovation ids, so it may run in parallel without changing them.
+        Pool[] newPools = new Pool[templates.size()];
+        if (m_config.EnableParallelOffspring)
+        {
+            runSeededOnWorkerThreads(newPools.length, task -> newPools[task] = createPoolFromTemplate(templates.get(task), false));
+        }
+        else
         {
-            case ADD_LINK: a.getNetwork().getMutator().mutateNewLink(); break;
-            case ADD_NODE: a.getNetwork().getMutator().mutateNewNode(); break;
-            case DELETE_LINK: a.getNetwork().getMutator().mutateDeleteLink(); break;
-            case DELETE_NODE: a.getNetwork().getMutator().mutateDeleteNode(); break;
-            case MODIFY_WEIGHT: a.getNetwork().getMutator().mutateWeight(); break;
+            for (int i = 0; i < newPools.length; i++)
+            {
+                newPools[i] = createPoolFromTemplate(templates.get(i), false);
+            }
         }
+        for (int i = 0; i < newPools.length; i++)
+        {
+            newPools[i].setOrigin(mutationOperators[i], parentFitnesses[i]);
+            m_pools.add(newPools[i]);
+        }
+    }
+
+    /**
+     * Creates a pool of agents with the template's topology, each with weights mutated from the template's or randomized.
+     * @param template
+     * @param keepTemplate Whether the first agent should be an unchanged copy of the template.
+     * @return
+     */
+    private Pool createPoolFromTemplate(Agent template, boolean keepTemplate)
+    {
+        // Templates received from other islands come without the limits.
+        template.getNetwork().setSizeLimits(m_config.MaxNodesPerNetwork, m_config.MaxLinksPerNetwork);
+        Pool newPool = new Pool();
+        for(int i = 1; i <= m_config.PoolSize; i++)
+        {
+            Agent a = template.deepCopy();
+            if (!keepTemplate || i > 1)
+            {
+                if(RNG.rnd() < 0.5)
+                {
+                    mutateAgentSimple(a);
+                }
+                else
+                {
+                    a.getNetwork().randomizeWeights();
+                }
+            }
+            newPool.getAgentsLive().add(a);
+        }
+        return newPool;
+    }
+
+    private void sortTopPerformersList() {
+        m_bestAgentsAllTime.sort((a, b) -> Double.compare(b.getFitnessScore(), a.getFitnessScore()));
+    }
+
+    /**
+     * Evaluates every agent of the pool, and charges the evaluations' elapsed time to the pool:  for remote
+     * evaluations, the time until the workers returned every score.  Package-private for tests.
+     * @param p
+     */
+    void evaluatePool(Pool p)
+    {
+        if (m_virtualThreadPermits != null && m_evaluationMaster == null)
+        {
+            evaluatePoolsOnVirtualThreads(Collections.singletonList(p));
+            return;
+        }
+        if (m_evaluationScheduler != null && m_evaluationMaster == null)
+        {
+            evaluatePoolsInParallel(Collections.singletonList(p));
+            return;
+        }
+        long start = System.nanoTime();
+        EvaluationBudget budget = new EvaluationBudget(m_config.NextGenNumToPreserve);
+        int sampleCount = getFitnessSampleCount();
+        if (m_evaluationMaster != null)
+        {
+            evaluatePoolRemotely(p, budget);
+        }
+        else if (m_config.EnableSuccessiveHalving && sampleCount > 0)
+        {
+            evaluatePoolBySuccessiveHalving(p, budget, sampleCount);
+        }
+        else
+        {
+            for(Agent a : p.getAgentsLive())
+            {
+                evaluateAgentFully(a, budget);
+            }
+        }
+        recordBudget(budget);
+        p.addEvaluationNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * Adds the samples and aborts accounted for by the budget to the experiment's totals.
+     * @param budget
+     */
+    private synchronized void recordBudget(EvaluationBudget budget)
+    {
+        m_samplesEvaluated += budget.getSamplesEvaluated();
+        m_samplesSaved += budget.getSamplesSaved();
+        m_evaluationsAborted += budget.getAbortCount();
+    }
+
+    /**
+     * Evolves every pool in steady state for one round.  Agents of pools that have never been evaluated are
+     * evaluated first, in parallel.  Then the worker threads share out the round's births, spread evenly over the
+     * pools:  each birth breeds or mutates a child from its pool, evaluates it, and inserts it in place of the pool's
+     * worst agent if the child scores better.  A pool is only locked while choosing parents and while inserting,
+     * never during an evaluation, so threads never wait for each other's evaluations.  The pool's elites are never
+     * replaced, since a child only ever replaces the worst agent.
+     */
+    private void evolvePoolsSteadyState()
+    {
+        ArrayList<Agent> agentsToEvaluate = new ArrayList<>();
+        ArrayList<Pool> poolsOfAgentsToEvaluate = new ArrayList<>();
+        for (Pool p : m_pools)
+        {
+            if (!p.isEvaluated())
+            {
+                for (Agent a : p.getAgentsLive())
+                {
+                    agentsToEvaluate.add(a);
+                    poolsOfAgentsToEvaluate.add(p);
+                }
+                p.setEvaluated(true);
+            }
+        }
+        runSeededOnWorkerThreads(agentsToEvaluate.size(), task ->
+                evaluateAgentConcurrently(poolsOfAgentsToEvaluate.get(task), agentsToEvaluate.get(task), Double.NEGATIVE_INFINITY));
+
+        ArrayList<Pool> pools = new ArrayList<>(m_pools);
+        int birthCount = pools.size() * m_config.NumGenerationIterations * m_config.PoolSize;
+        runOnWorkerThreads(birthCount, task -> createChildInSteadyState(pools.get(task % pools.size())));
+
+        for (Pool p : m_pools)
+        {
+            p.sortAgentsByFitness();
+        }
+    }
+
+    /**
+     * Evolves every pool for NumGenerationIterations generations, generation by generation:  the pools are
+     * evaluated one after the other, and then the next generation of every pool is produced in parallel.
+     */
+    private void evolvePoolsWithParallelOffspring()
+    {
+        ArrayList<Pool> pools = new ArrayList<>(m_pools);
+        for (int generation = 0; generation < m_config.NumGenerationIterations; generation++)
+        {
+            evaluatePools(pools);
+            runSeededOnWorkerThreads(pools.size(), task -> createNextGenForPool(pools.get(task)));
+        }
+        // Do one final evaluation.
+        evaluatePools(pools);
+        for (Pool p : pools)
+        {
+            p.sortAgentsByFitness();
+        }
+    }
+
+    /**
+     * Evaluates every agent of the pools:  all at once on virtual threads or the evaluation scheduler if enabled,
+     * otherwise one pool at a time.
+     * @param pools
+     */
+    private void evaluatePools(List<Pool> pools)
+    {
+        if (m_virtualThreadPermits != null && m_evaluationMaster == null)
+        {
+            evaluatePoolsOnVirtualThreads(pools);
+            return;
+        }
+        if (m_evaluationScheduler != null && m_evaluationMaster == null)
+        {
+            evaluatePoolsInParallel(pools);
+            return;
+        }
+        for (Pool p : pools)
+        {
+            evaluatePool(p);
+        }
+    }
+
+    /**
+     * Evaluates every agent of the pools on the evaluation scheduler's threads, in tasks balanced by each agent's
+     * estimated cost, and returns when all are evaluated.  Each agent is evaluated on its own budget, without early
+     * termination.
+     * @param pools
+     */
+    private void evaluatePoolsInParallel(List<Pool> pools)
+    {
+        ArrayList<Agent> agents = new ArrayList<>();
+        ArrayList<Pool> poolsOfAgents = new ArrayList<>();
+        for (Pool p : pools)
+        {
+            for (Agent a : p.getAgentsLive())
+            {
+                agents.add(a);
+                poolsOfAgents.add(p);
+            }
+        }
+        double[] costs = new double[agents.size()];
+        long[] seeds = new long[agents.size()];
+        for (int i = 0; i < costs.length; i++)
+        {
+            costs[i] = estimateEvaluationCost(agents.get(i));
+            seeds[i] = RNG.rndLong();
+        }
+        m_evaluationScheduler.run(costs, i -> {
+            // As in runSeededOnWorkerThreads, so the evaluation's random numbers do not depend on its thread.
+            RNG.setSeed(seeds[i]);
+            evaluateAgentConcurrently(poolsOfAgents.get(i), agents.get(i), Double.NEGATIVE_INFINITY);
+        });
+    }
+
+    /**
+     * Estimates the relative cost of evaluating the agent, for balancing parallel evaluations:  by default, the number
+     * of links and nodes its compiled network computes per sample, times the number of samples.  Subclasses whose
+     * fitness functions cost something else (e.g. a simulation length that varies by agent) may override this.
+     * @param a
+     * @return
+     */
+    protected double estimateEvaluationCost(Agent a)
+    {
+        EvaluationPlan plan = a.getNetwork().getCompiled().getPlan();
+        return (double) (plan.getLinkCount() + plan.getComputedCount()) * Math.max(1, getFitnessSampleCount());
+    }
+
+    /**
+     * Evaluates every agent of the pools on its own virtual thread, and returns when all are evaluated.
+     * The calling thread waits for a permit before starting each evaluation, so no more than VirtualThreadConcurrency
+     * evaluations are ever in progress, and no more virtual threads exist than that.  Each agent is evaluated on its
+     * own budget, without early termination.
+     * @param pools
+     */
+    private void evaluatePoolsOnVirtualThreads(List<Pool> pools)
+    {
+        ArrayList<Future<?>> evaluations = new ArrayList<>();
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(VIRTUAL_EVALUATION_THREADS))
+        {
+            for (Pool p : pools)
+            {
+                for (Agent a : p.getAgentsLive())
+                {
+                    m_virtualThreadPermits.acquire();
+                    long seed = RNG.rndLong();
+                    evaluations.add(executor.submit(() -> {
+                        try
+                        {
+                            RNG.setSeed(seed);
+                            evaluateAgentConcurrently(p, a, Double.NEGATIVE_INFINITY);
+                        }
+                        finally
+                        {
+                            m_virtualThreadPermits.release();
+                        }
+                    }));
+                }
+            }
+            for (Future<?> evaluation : evaluations)
+            {
+                evaluation.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for evaluations on virtual threads.", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("An evaluation on a virtual thread failed.", e.getCause());
+        }
+    }
+
+    /**
+     * Runs tasks as {@link #runOnWorkerThreads(int, IntConsumer)} does, but first seeds the worker's random
+     * sequence with a seed drawn for the task from the calling thread's sequence.  The tasks' random numbers then
+     * depend only on the calling thread's sequence, not on which thread runs which task, or when.
+     * @param taskCount
+     * @param task
+     */
+    private void runSeededOnWorkerThreads(int taskCount, IntConsumer task)
+    {
+        long[] seeds = new long[taskCount];
+        for (int i = 0; i < taskCount; i++)
+        {
+            seeds[i] = RNG.rndLong();
+        }
+        runOnWorkerThreads(taskCount, taskIndex -> {
+            RNG.setSeed(seeds[taskIndex]);
+            task.accept(taskIndex);
+        });
+    }
+
+    /**
+     * Runs tasks 0 to taskCount - 1 on the worker threads, each thread taking the next task as soon as it has
+     * finished its last one, and returns when every task has finished.
+     * @param taskCount
+     * @param task
+     */
+    private void runOnWorkerThreads(int taskCount, IntConsumer task)
+    {
+        int configuredThreadCount = m_config.EnableSteadyState ? m_config.SteadyStateThreadCount : m_config.OffspringThreadCount;
+        int threadCount = (configuredThreadCount > 0) ? configuredThreadCount : Runtime.getRuntime().availableProcessors();
+        if (m_workerExecutor == null)
+        {
+            m_workerExecutor = Executors.newFixedThreadPool(threadCount, runnable -> {
+                Thread thread = new Thread(runnable, "Worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        AtomicInteger nextTask = new AtomicInteger();
+        ArrayList<Future<?>> threads = new ArrayList<>(threadCount);
+        for (int t = 0; t < threadCount; t++)
+        {
+            threads.add(m_workerExecutor.submit(() -> {
+                int taskIndex;
+                while ((taskIndex = nextTask.getAndIncrement()) < taskCount)
+                {
+                    task.accept(taskIndex);
+                }
+            }));
+        }
+        try
+        {
+            for (Future<?> thread : threads)
+            {
+                thread.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the worker threads.", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("A task on a worker thread failed.", e.getCause());
+        }
+    }
+
+    /**
+     * Performs one steady-state birth in the supplied pool.
+     * @param p
+     */
+    private void createChildInSteadyState(Pool p)
+    {
+        Agent child;
+        boolean breed;
+        double worstFitness;
+        synchronized (p)
+        {
+            ArrayList<Agent> agents = p.getAgentsLive();
+            if (m_config.ParentSelectionType == ExperimentConfig.SelectionType.RANK_ROULETTE)
+            {
+                // Mostly sorted already, since each birth replaces at most one agent.
+                p.sortAgentsByFitness();
+            }
+            Agent parent1 = selectParent(agents);
+            child = parent1.deepCopy();
+            // Breed and mutate in the same proportion as a generation would.
+            breed = RNG.rnd(m_config.NextGenNumToBreed + m_config.NextGenNumToMutateSimple) < m_config.NextGenNumToBreed;
+            if (breed)
+            {
+                Agent parent2 = selectParent(agents);
+                breedTwoAgents(parent1, parent2, child);
+            }
+            worstFitness = agents.get(findWorstAgentIndex(agents)).getFitnessScore();
+        }
+        if (!breed)
+        {
+            mutateAgentSimple(child);
+        }
+        child.setFitnessScore(0);
+
+        // The child only enters the pool if it beats the worst agent, so its evaluation can stop once it cannot.
+        evaluateAgentConcurrently(p, child, worstFitness);
+
+        synchronized (p)
+        {
+            ArrayList<Agent> agents = p.getAgentsLive();
+            int worstIndex = findWorstAgentIndex(agents);
+            if (child.getFitnessScore() > agents.get(worstIndex).getFitnessScore())
+            {
+                agents.set(worstIndex, child);
+            }
+        }
+    }
+
+    /**
+     * Evaluates an agent on a budget of its own, so it may be evaluated concurrently with other agents
+     * (on a steady-state worker or a virtual thread), and charges the evaluation's elapsed time to the agent's pool.
+     * @param p The agent's pool.
+     * @param a
+     * @param threshold The score the agent must beat to be of any use; the evaluation may be aborted once it cannot.
+     */
+    private void evaluateAgentConcurrently(Pool p, Agent a, double threshold)
+    {
+        long start = System.nanoTime();
+        EvaluationBudget budget = new EvaluationBudget(1);
+        if (threshold > Double.NEGATIVE_INFINITY)
+        {
+            budget.recordScore(threshold);
+        }
+        evaluateAgentFully(a, budget);
+        recordBudget(budget);
+        p.addEvaluationNanos(System.nanoTime() - start);
+    }
+
+    private static int findWorstAgentIndex(ArrayList<Agent> agents)
+    {
+        int worstIndex = 0;
+        for (int i = 1; i < agents.size(); i++)
+        {
+            if (agents.get(i).getFitnessScore() < agents.get(worstIndex).getFitnessScore())
+            {
+                worstIndex = i;
+            }
+        }
+        return worstIndex;
+    }
+
+    /**
+     * Races the agents of the pool:  every agent is scored on a small subset of the samples, the worst are dropped,
+     * and the survivors are scored on progressively larger subsets until the remaining agents are scored on all samples.
+     * Dropped agents keep their penalized subset score, capped just below the worst full-run score in the pool (cached
+     * agents and aborted survivors included) so that they never outrank an agent scored on every sample.  A subset
+     * score is no measure of the agent's real fitness, so dropped agents never enter the best performer list.
+     * @param p
+     * @param budget
+     * @param sampleCount The total number of samples the fitness function evaluates.
+     */
+    private void evaluatePoolBySuccessiveHalving(Pool p, EvaluationBudget budget, int sampleCount)
+    {
+        ArrayList<Agent> survivors = new ArrayList<>(p.getAgentsLive().size());
+        double worstFullRunFitness = Double.POSITIVE_INFINITY;
+        for (Agent a : p.getAgentsLive())
+        {
+            // Agents with a remembered score have already been fully evaluated.
+            budget.beginAgent(sampleCount);
+            if (applyCachedFitness(a))
+            {
+                finishAgentEvaluation(a, budget);
+                worstFullRunFitness = Math.min(worstFullRunFitness, a.getFitnessScore());
+            }
+            else
+            {
+                survivors.add(a);
+            }
+        }
+
+        ArrayList<Agent> dropped = new ArrayList<>();
+        int reductionFactor = Math.max(2, m_config.SuccessiveHalvingReductionFactor);
+        int samples = Math.max(1, (int) (sampleCount * m_config.SuccessiveHalvingInitialFraction));
+        while (samples < sampleCount && survivors.size() > 1)
+        {
+            for (Agent a : survivors)
+            {
+                budget.beginAgent(samples);
+                evaluateInContext(a, budget);
+            }
+            survivors.sort((a1, a2) -> Double.compare(a2.getFitnessScore(), a1.getFitnessScore()));
+            int numToKeep = (survivors.size() + reductionFactor - 1) / reductionFactor;
+            while (survivors.size() > numToKeep)
+            {
+                dropped.add(survivors.remove(survivors.size() - 1));
+            }
+            samples *= reductionFactor;
+        }
+
+        for (Agent a : survivors)
+        {
+            // An aborted survivor's partial score still outranks every dropped agent.
+            evaluateAgentFully(a, budget);
+            worstFullRunFitness = Math.min(worstFullRunFitness, a.getFitnessScore());
+        }
+        double droppedFitnessCap = Math.nextDown(worstFullRunFitness);
+        for (Agent a : dropped)
+        {
+            budget.beginAgent(Integer.MAX_VALUE);
+            recordPenalizedScore(a, budget, droppedFitnessCap);
+        }
+    }
+
+    /**
+     * Evaluates every agent of the pool that the fitness cache cannot answer on the remote workers, all at once,
+     * so the master can spread them over every worker.
+     * @param p
+     * @param budget
+     */
+    private void evaluatePoolRemotely(Pool p, EvaluationBudget budget)
+    {
+        ArrayList<Agent> pending = new ArrayList<>(p.getAgentsLive().size());
+        ArrayList<Network> networks = new ArrayList<>(p.getAgentsLive().size());
+        for (Agent a : p.getAgentsLive())
+        {
+            budget.beginAgent(Integer.MAX_VALUE);
+            if (applyCachedFitness(a))
+            {
+                finishAgentEvaluation(a, budget);
+            }
+            else
+            {
+                pending.add(a);
+                networks.add(a.getNetwork());
+            }
+        }
+        if (pending.isEmpty()) return;
+
+        double[] scores = evaluateRemotely(networks);
+        for (int i = 0; i < pending.size(); i++)
+        {
+            Agent a = pending.get(i);
+            a.setFitnessScore(scores[i]);
+            budget.beginAgent(Integer.MAX_VALUE);
+            if (m_fitnessCache != null)
+            {
+                m_fitnessCache.put(m_fitnessCache.createKey(a.getNetwork()), scores[i]);
+            }
+            finishAgentEvaluation(a, budget);
+        }
+    }
+
+    /**
+     * Evaluates the networks on the remote workers, and returns their scores.
+     * @param networks
+     * @return
+     */
+    private double[] evaluateRemotely(List<Network> networks)
+    {
+        try
+        {
+            return m_evaluationMaster.evaluate(networks);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for remote evaluations.", e);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Remote evaluation failed.", e);
+        }
+    }
+
+    /**
+     * Assigns the agent its fitness on all samples, reusing a remembered score if the fitness cache is enabled and
+     * the agent's network has not changed since it was last evaluated.  Partial scores are never remembered.
+     * @param a
+     * @param budget
+     */
+    private void evaluateAgentFully(Agent a, EvaluationBudget budget)
+    {
+        budget.beginAgent(Integer.MAX_VALUE);
+        if (!applyCachedFitness(a))
+        {
+            if (m_evaluationMaster != null)
+            {
+                a.setFitnessScore(evaluateRemotely(Collections.singletonList(a.getNetwork()))[0]);
+            }
+            else
+            {
+                evaluateInContext(a, budget);
+            }
+            if (m_fitnessCache != null && !budget.isAborted())
+            {
+                m_fitnessCache.put(m_fitnessCache.createKey(a.getNetwork()), a.getFitnessScore());
+            }
+        }
+        finishAgentEvaluation(a, budget);
+    }
+
+    /**
+     * Evaluates the agent with {@link #EvaluateFitness(EvaluationContext)}, in an idle context.  The context's random
+     * number generator is reseeded from the evaluating thread's sequence, which the parallel evaluation modes seed
+     * per agent from the submitting thread, so the evaluation's random numbers do not depend on which context or
+     * thread it gets.
+     * @param a
+     * @param budget
+     */
+    private void evaluateInContext(Agent a, EvaluationBudget budget)
+    {
+        // Drawn before a context may be created, since creating one may draw from the sequence too.
+        long seed = RNG.rndLong();
+        EvaluationContext context = m_idleEvaluationContexts.poll();
+        if (context == null)
+        {
+            context = createEvaluationContext();
+        }
+        try
+        {
+            context.bind(a, budget, seed);
+            EvaluateFitness(context);
+        }
+        finally
+        {
+            context.unbind();
+            m_idleEvaluationContexts.add(context);
+        }
+    }
+
+    /**
+     * If the fitness cache remembers the agent's network, assigns the remembered score and returns true.
+     * @param a
+     * @return
+     */
+    private boolean applyCachedFitness(Agent a)
+    {
+        if (m_fitnessCache == null) return false;
+        Double cachedFitness = m_fitnessCache.get(m_fitnessCache.createKey(a.getNetwork()));
+        if (cachedFitness == null) return false;
+        a.setFitnessScore(cachedFitness);
+        return true;
+    }
+
+    /**
+     * Applies the complexity penalty to a fully evaluated agent's score, and feeds the score into the selection
+     * threshold and the best performer list.  The fitness cache holds unpenalized scores, since the penalty changes
+     * from round to round.
+     * @param a
+     * @param budget
+     */
+    private void finishAgentEvaluation(Agent a, EvaluationBudget budget)
+    {
+        recordPenalizedScore(a, budget, Double.POSITIVE_INFINITY);
+        // A partial score is no measure of the agent's real fitness.
+        if (!budget.isAborted())
+        {
+            checkEligibilityForBestPerformerList(a);
+        }
+    }
+
+    /**
+     * Applies the complexity penalty to an agent's score, caps it, and feeds it into the selection threshold.
+     * @param a
+     * @param budget
+     * @param scoreCap The highest score the agent may end up with.
+     */
+    private void recordPenalizedScore(Agent a, EvaluationBudget budget, double scoreCap)
+    {
+        a.setFitnessScore(Math.min(a.getFitnessScore() - getComplexityPenalty(a), scoreCap));
+        budget.recordScore(a.getFitnessScore());
+    }
+
+    private void checkEligibilityForBestPerformerList(Agent a)
+    {
+        // Locked, since agents are evaluated concurrently in steady state.
+        synchronized (m_bestAgentsAllTime)
+        {
+            if (m_bestAgentsAllTime.size() < m_config.BestAgentCount)
+            {
+                m_bestAgentsAllTime.add(a.deepCopy());
+            }
+            else
+            {
+                double lowestFitness = m_bestAgentsAllTime.get(m_bestAgentsAllTime.size() - 1).getFitnessScore();
+                if(a.getFitnessScore() > lowestFitness)
+                {
+                    m_bestAgentsAllTime.remove(m_bestAgentsAllTime.size() - 1);
+                    m_bestAgentsAllTime.add(a.deepCopy());
+                    sortTopPerformersList();
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs a mutation that does not affect the topology of the network.
+     * @param a
+     */
+    private void mutateAgentSimple(Agent a)
+    {
+        if (m_config.WeightMutationFraction > 0) {
+            a.getNetwork().getMutator().mutateWeightsGaussian(m_config.WeightMutationFraction,
+                    m_config.WeightMutationStepSize, m_config.EnableStepSizeSelfAdaptation);
+        }
+        else {
+            a.getNetwork().getMutator().mutateWeight();
+        }
+    }
+
+    /**
+     * Takes two agents (with the same network topology) and breeds a child, using the configured crossover.
+     * @param a
+     * @param b
+     * @param child Receives the child.  Must already have the same topology as the parents; every weight is overwritten.
+     */
+    private void breedTwoAgents(Agent a, Agent b, Agent child){
+        switch (m_config.BreedCrossoverType)
+        {
+            case UNIFORM: NetworkCrossover.uniform(a.getNetwork(), b.getNetwork(), child.getNetwork()); break;
+            case ONE_POINT: NetworkCrossover.onePoint(a.getNetwork(), b.getNetwork(), child.getNetwork()); break;
+            case BLEND: NetworkCrossover.blend(a.getNetwork(), b.getNetwork(), child.getNetwork(), m_config.BreedBlendAlpha); break;
+        }
+    }
+
+    /**
+     * Applies a mutation operator chosen from the registry by weight, and returns the operator's index,
+     * so its outcome can be recorded.
+     * @param a
+     * @return
+     */
+    private int mutateAgent(Agent a){
+        int operator = m_mutationOperatorRegistry.choose();
+        m_mutationOperatorRegistry.apply(operator, a.getNetwork());
+        return operator;
     }
 }
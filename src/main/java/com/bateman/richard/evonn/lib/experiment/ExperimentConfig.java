@@ -1,6 +1,6 @@
 package com.bateman.richard.evonn.lib.experiment;
 
-import com.bateman.richard.math.RNG;
+import com.bateman.richard.evonn.lib.ann.EvaluationPlanCache;
 
 public class ExperimentConfig {
     public enum MutationType {
@@ -12,6 +12,57 @@ public class ExperimentConfig {
         DELETE_NODE,
     }
 
+    /**
+     * How the weights of two parents are combined when breeding.
+     */
+    public enum CrossoverType {
+        /**
+         * Each weight comes from either parent with equal probability.
+         */
+        UNIFORM,
+        /**
+         * Weights before a random point come from one parent, the rest from the other.
+         */
+        ONE_POINT,
+        /**
+         * Each weight is drawn from the interval spanned by the parents' weights, widened by BreedBlendAlpha.
+         */
+        BLEND,
+    }
+
+    /**
+     * How the parents of bred and mutated agents are chosen from a pool.
+     */
+    public enum SelectionType {
+        /**
+         * Every agent is equally likely to be chosen, regardless of fitness.
+         */
+        UNIFORM,
+        /**
+         * The fittest of TournamentSize agents, chosen uniformly, is selected.  Needs no sorting.
+         */
+        TOURNAMENT,
+        /**
+         * Agents are chosen with probability proportional to their rank (the fittest of n agents has weight n,
+         * the least fit weight 1), sampled in constant time from an alias table.  Needs the pool sorted by fitness.
+         */
+        RANK_ROULETTE,
+    }
+
+    /**
+     * Which islands send migrants to which, when the experiment runs as one island of an island model.
+     */
+    public enum MigrationTopology {
+        /**
+         * Each island receives migrants from the island before it only (island 0 from the last island).
+         */
+        RING,
+        /**
+         * Each island receives migrants from every other island.
+         */
+        FULLY_CONNECTED,
+    }
+
     public static final double DEFAULT_DESIRED_FITNESS = 0.80;
     public static final int DEFAULT_MAX_POOL_COUNT = 500;
     public static final int DEFAULT_BEST_AGENTS_COUNT = 100;
@@ -23,14 +74,70 @@ public class ExperimentConfig {
 
     public static final int DEFAULT_NUM_GENERATION_ITERATIONS = 100;
 
-    public static final int DEFAULT_MUTATION_AMOUNT_MODIFY_WEIGHT = 100;
-    public static final int DEFAULT_MUTATION_AMOUNT_ADD_LINK = 10;
-    public static final int DEFAULT_MUTATION_AMOUNT_ADD_NODE = 10;
-    public static final int DEFAULT_MUTATIONA_MOUNT_DELETE_LINK = 5;
-    public static final int DEFAULT_MUTATION_AMOUNT_DELETE_NODE = 5;
+    public static final CrossoverType DEFAULT_BREED_CROSSOVER_TYPE = CrossoverType.UNIFORM;
+    public static final double DEFAULT_BREED_BLEND_ALPHA = 0.5;
+    public static final double DEFAULT_WEIGHT_MUTATION_FRACTION = 0;
+    public static final double DEFAULT_WEIGHT_MUTATION_STEP_SIZE = 0.1;
+    public static final boolean DEFAULT_ENABLE_STEP_SIZE_SELF_ADAPTATION = false;
+    public static final double DEFAULT_NEW_POOL_CROSSOVER_RATE = 0.0;
+
+    public static final SelectionType DEFAULT_PARENT_SELECTION_TYPE = SelectionType.UNIFORM;
+    public static final int DEFAULT_TOURNAMENT_SIZE = 2;
+
+    public static final boolean DEFAULT_ENABLE_SPECIATION = false;
+    public static final double DEFAULT_COMPATIBILITY_EXCESS_COEFFICIENT = 1.0;
+    public static final double DEFAULT_COMPATIBILITY_DISJOINT_COEFFICIENT = 1.0;
+    public static final double DEFAULT_COMPATIBILITY_WEIGHT_COEFFICIENT = 0.4;
+    public static final double DEFAULT_COMPATIBILITY_THRESHOLD = 3.0;
+    public static final int DEFAULT_TARGET_SPECIES_COUNT = 0;
+    public static final double DEFAULT_COMPATIBILITY_THRESHOLD_STEP = 0.3;
+
+    public static final int DEFAULT_MUTATION_AMOUNT_MODIFY_WEIGHT = 0;
+    public static final int DEFAULT_MUTATION_AMOUNT_ADD_LINK = 40;
+    public static final int DEFAULT_MUTATION_AMOUNT_ADD_NODE = 40;
+    public static final int DEFAULT_MUTATIONA_MOUNT_DELETE_LINK = 10;
+    public static final int DEFAULT_MUTATION_AMOUNT_DELETE_NODE = 10;
 
     public static final boolean DEFAULT_ENABLE_NETWORK_VERIFICATIONS = true;
 
+    public static final int DEFAULT_EVALUATION_PLAN_CACHE_MAX_ENTRIES = EvaluationPlanCache.DEFAULT_MAX_ENTRIES;
+    public static final long DEFAULT_EVALUATION_PLAN_CACHE_MAX_COST = EvaluationPlanCache.DEFAULT_MAX_COST;
+
+    public static final int DEFAULT_MAX_NODES_PER_NETWORK = 0;
+    public static final int DEFAULT_MAX_LINKS_PER_NETWORK = 0;
+    public static final double DEFAULT_TARGET_MEAN_EVALUATED_LINKS = 0;
+    public static final double DEFAULT_COMPLEXITY_PENALTY_STEP = 1e-4;
+
+    public static final boolean DEFAULT_ENABLE_FITNESS_CACHE = false;
+    public static final int DEFAULT_FITNESS_CACHE_MAX_ENTRIES = 10000;
+    public static final int DEFAULT_FITNESS_CACHE_MAX_REUSES = Integer.MAX_VALUE;
+
+    public static final boolean DEFAULT_ENABLE_SUCCESSIVE_HALVING = false;
+    public static final double DEFAULT_SUCCESSIVE_HALVING_INITIAL_FRACTION = 0.125;
+    public static final int DEFAULT_SUCCESSIVE_HALVING_REDUCTION_FACTOR = 2;
+
+    public static final boolean DEFAULT_ENABLE_ADAPTIVE_MUTATION = false;
+    public static final double DEFAULT_ADAPTIVE_MUTATION_DECAY = 0.9;
+    public static final double DEFAULT_ADAPTIVE_MUTATION_MINIMUM_SHARE = 0.02;
+    public static final double DEFAULT_ADAPTIVE_MUTATION_EXPLORATION = 0.5;
+
+    public static final boolean DEFAULT_ENABLE_STEADY_STATE = false;
+    public static final int DEFAULT_STEADY_STATE_THREAD_COUNT = 0;
+
+    public static final boolean DEFAULT_ENABLE_PARALLEL_OFFSPRING = false;
+    public static final int DEFAULT_OFFSPRING_THREAD_COUNT = 0;
+    public static final long DEFAULT_RANDOM_SEED = 0;
+
+    public static final boolean DEFAULT_ENABLE_VIRTUAL_THREAD_EVALUATION = false;
+    public static final int DEFAULT_VIRTUAL_THREAD_CONCURRENCY = 1000;
+
+    public static final boolean DEFAULT_ENABLE_PARALLEL_EVALUATION = false;
+    public static final int DEFAULT_EVALUATION_THREAD_COUNT = 0;
+
+    public static final int DEFAULT_MIGRATION_INTERVAL = 1;
+    public static final int DEFAULT_MIGRANT_COUNT = 2;
+    public static final MigrationTopology DEFAULT_MIGRATION_TOPOLOGY = MigrationTopology.RING;
+
     /// <summary>
     /// Whether the network should perform verification on its topology to look for errors.
     /// This is a feature useful for debugging, but shouldn't be enabled when performance is a concern.
@@ -57,15 +164,251 @@ public class ExperimentConfig {
 
     public int NumGenerationIterations;
 
+    /**
+     * How the weights of two parents are combined when breeding.
+     */
+    public CrossoverType BreedCrossoverType;
+
+    /**
+     * For blend crossover, how far beyond the interval between the parents' weights a child's weight may fall,
+     * as a fraction of the interval's width.
+     */
+    public double BreedBlendAlpha;
+
+    /**
+     * The expected fraction of an agent's weights perturbed with Gaussian noise by a simple mutation.
+     * 0 keeps the original simple mutation, which nudges a single weight.
+     */
+    public double WeightMutationFraction;
+
+    /**
+     * The standard deviation of the Gaussian noise added to a weight, or its initial value when self-adapting.
+     */
+    public double WeightMutationStepSize;
+
+    /**
+     * Whether every link evolves its own step size along with its weight.
+     */
+    public boolean EnableStepSizeSelfAdaptation;
+
+    /**
+     * The probability that a new pool's template is bred from the best agents of two pools (whose topologies may
+     * differ, matched by innovation number) rather than made by a topology mutation.
+     */
+    public double NewPoolCrossoverRate;
+
+    /**
+     * How the parents of bred agents, and the agents copied for mutation, are chosen from a pool.
+     * Except with RANK_ROULETTE, pools are no longer sorted to create the next generation; only the agents
+     * preserved as elites are found, by partial selection.
+     */
+    public SelectionType ParentSelectionType;
+
+    /**
+     * The number of agents competing in each tournament, for tournament selection.  Larger is greedier.
+     */
+    public int TournamentSize;
+
+    /**
+     * Whether to cluster the best agent of every pool into species.  When enabled, the best pool of each species
+     * is protected from elimination, and new topologies are derived from the champions of randomly chosen species
+     * rather than of randomly chosen pools, which spreads new pools evenly across structurally distinct networks.
+     */
+    public boolean EnableSpeciation;
+
+    /**
+     * Weights of the excess genes, disjoint genes and mean matching-weight difference in the compatibility distance.
+     */
+    public double CompatibilityExcessCoefficient;
+    public double CompatibilityDisjointCoefficient;
+    public double CompatibilityWeightCoefficient;
+
+    /**
+     * The compatibility distance under which an agent belongs to a species.
+     */
+    public double CompatibilityThreshold;
 
+    /**
+     * If greater than 0, the compatibility threshold is adjusted by CompatibilityThresholdStep after each
+     * speciation to steer the number of species towards this target.
+     */
+    public int TargetSpeciesCount;
+    public double CompatibilityThresholdStep;
+
+    /**
+     * The maximum number of compiled evaluation plans (one per distinct topology) kept in the shared plan cache.
+     */
+    public int EvaluationPlanCacheMaxEntries;
+
+    /**
+     * The maximum combined size, in array elements, of all compiled evaluation plans kept in the shared plan cache.
+     */
+    public long EvaluationPlanCacheMaxCost;
+
+    /**
+     * The most nodes (including inputs, bias and outputs) a mutation may grow a network to, or 0 for no limit.
+     */
+    public int MaxNodesPerNetwork;
+
+    /**
+     * The most links a mutation may grow a network to, or 0 for no limit.
+     */
+    public int MaxLinksPerNetwork;
+
+    /**
+     * The mean number of links evaluated per network (after pruning) the population should stay within, or 0 for
+     * no complexity penalty.  While the mean exceeds it, every agent's fitness is reduced by a penalty per evaluated
+     * link, which grows each round until the population shrinks back within the target.
+     * Penalized scores also count towards DesiredFitness.
+     */
+    public double TargetMeanEvaluatedLinks;
+
+    /**
+     * How much the penalty per evaluated link grows (or shrinks) each round the population is over (or within)
+     * its target.
+     */
+    public double ComplexityPenaltyStep;
+
+    /**
+     * Whether to remember the fitness of each network (by topology and weights) and skip re-evaluating unchanged
+     * agents, such as the elites preserved into the next generation.  Only enable this for deterministic fitness
+     * functions, or limit FitnessCacheMaxReuses for stochastic ones.
+     */
+    public boolean EnableFitnessCache;
+
+    /**
+     * The maximum number of fitness scores remembered by the fitness cache.
+     */
+    public int FitnessCacheMaxEntries;
+
+    /**
+     * How many times a remembered score may be reused before the agent is evaluated again.
+     * Integer.MAX_VALUE never re-evaluates (deterministic fitness); small values suit stochastic environments.
+     */
+    public int FitnessCacheMaxReuses;
+
+    /**
+     * Whether to evaluate pools by successive halving:  all agents are scored on a small subset of the samples,
+     * the worst are dropped, and the survivors are scored on progressively larger subsets.
+     * Requires the experiment to report its sample count (see ExperimentBase.getFitnessSampleCount).
+     */
+    public boolean EnableSuccessiveHalving;
+
+    /**
+     * The fraction of the samples every agent is scored on in the first round of successive halving.
+     */
+    public double SuccessiveHalvingInitialFraction;
+
+    /**
+     * Each round of successive halving keeps 1 / factor of the agents, and multiplies the samples by factor.
+     */
+    public int SuccessiveHalvingReductionFactor;
+
+    /**
+     * Whether to choose the topology mutation of each new pool from the mutation operator registry, reweighted
+     * after every round by each operator's payoff:  the fitness its pools gained over the agent they were mutated
+     * from, per millisecond spent evaluating them (elapsed time, in every evaluation mode).  Otherwise the operators keep the weights they
+     * were registered with (for the built-in operators, the configured mutation amounts).
+     */
+    public boolean EnableAdaptiveMutation;
+
+    /**
+     * How much of an operator's recorded payoff is kept at each reweighting.
+     */
+    public double AdaptiveMutationDecay;
+
+    /**
+     * The smallest probability any enabled mutation operator is given.
+     */
+    public double AdaptiveMutationMinimumShare;
+
+    /**
+     * How strongly rarely tried operators are favoured, relative to the most productive operator.
+     */
+    public double AdaptiveMutationExploration;
+
+    /**
+     * Whether to evolve pools in steady state rather than generation by generation.  Worker threads continuously
+     * take a pool, breed or mutate a child from it, evaluate the child, and insert it in place of the pool's worst
+     * agent if the child is better, so no thread waits for the rest of a generation to finish evaluating.
+     * Each round performs as many births per pool as NumGenerationIterations generations would.
+     * The fitness function must be thread-safe.
+     */
+    public boolean EnableSteadyState;
+
+    /**
+     * The number of worker threads evolving pools in steady state, or 0 for one per available processor.
+     */
+    public int SteadyStateThreadCount;
+
+    /**
+     * Whether to produce the next generation of every pool (copying, breeding and mutating) in parallel, one task
+     * per pool, as well as the agents of new pools.  Pools are still evaluated one at a time, and structural
+     * mutations are still applied in order, so innovation ids are handed out in the same order as before.
+     * Each task draws from its own random sequence, seeded from the experiment's sequence, so a seeded run produces
+     * the same offspring however the tasks are spread over the threads.
+     */
+    public boolean EnableParallelOffspring;
+
+    /**
+     * The number of worker threads producing offspring in parallel, or 0 for one per available processor.
+     */
+    public int OffspringThreadCount;
+
+    /**
+     * The seed of the experiment's random sequence, or 0 for a different sequence every run.  A seeded run is
+     * repeatable, as long as the fitness function is deterministic and neither steady state nor adaptive mutation
+     * (which measures evaluation time) is enabled.
+     */
+    public long RandomSeed;
+
+    /**
+     * Whether to evaluate each agent on its own virtual thread, for fitness functions that spend most of their time
+     * blocked (e.g. waiting for an external simulator).  Blocked evaluations then overlap without tying up a
+     * platform thread each.  Every agent of a pool is evaluated at once, as is every agent of every pool when
+     * producing offspring in parallel.  Successive halving and early termination are not used in this mode.
+     * The fitness function must be thread-safe.
+     */
+    public boolean EnableVirtualThreadEvaluation;
+
+    /**
+     * The most evaluations in progress at once on virtual threads.  Bounds the load put on whatever the fitness
+     * function waits for.
+     */
+    public int VirtualThreadConcurrency;
+
+    /**
+     * Whether to evaluate agents in parallel on a work-stealing pool, split into tasks of about equal estimated cost
+     * (see {@link EvaluationScheduler}), so pools of large networks do not hold up the threads that evaluated the
+     * small ones.  Every agent of a pool is evaluated at once, as is every agent of every pool when producing
+     * offspring in parallel.  Successive halving and early termination are not used in this mode.
+     * The threads' utilization is reported after every round.  The fitness function must be thread-safe.
+     */
+    public boolean EnableParallelEvaluation;
+
+    /**
+     * The number of threads evaluating agents in parallel, or 0 for one per available processor.
+     */
+    public int EvaluationThreadCount;
+
+    /**
+     * When running as an island, the number of rounds (each evolving every pool for NumGenerationIterations
+     * generations) between migrations.
+     */
+    public int MigrationInterval;
+
+    /**
+     * When running as an island, the number of best agents sent to the other islands at each migration.
+     * Every agent received seeds a new pool.
+     */
+    public int MigrantCount;
+
+    /**
+     * When running as an island, which islands receive this island's migrants.
+     */
+    public MigrationTopology IslandMigrationTopology;
 
-    private int m_mutationAmountTotal = 0;
 
-    private int m_mutationAmountModifyWeightScaled = 0;
-    private int m_mutationAmountAddLinkScaled = 0;
-    private int m_mutationAmountAddNodeScaled = 0;
-    private int m_mutationAmountDeleteLinkScaled = 0;
-    private int m_mutationAmountDeleteNodeScaled = 0;
 
     private int m_mutationAmountModifyWeight = 0;
     private int m_mutationAmountAddLink = 0;
@@ -94,6 +437,24 @@ public class ExperimentConfig {
 
         NumGenerationIterations = DEFAULT_NUM_GENERATION_ITERATIONS;
 
+        BreedCrossoverType = DEFAULT_BREED_CROSSOVER_TYPE;
+        BreedBlendAlpha = DEFAULT_BREED_BLEND_ALPHA;
+        WeightMutationFraction = DEFAULT_WEIGHT_MUTATION_FRACTION;
+        WeightMutationStepSize = DEFAULT_WEIGHT_MUTATION_STEP_SIZE;
+        EnableStepSizeSelfAdaptation = DEFAULT_ENABLE_STEP_SIZE_SELF_ADAPTATION;
+        NewPoolCrossoverRate = DEFAULT_NEW_POOL_CROSSOVER_RATE;
+
+        ParentSelectionType = DEFAULT_PARENT_SELECTION_TYPE;
+        TournamentSize = DEFAULT_TOURNAMENT_SIZE;
+
+        EnableSpeciation = DEFAULT_ENABLE_SPECIATION;
+        CompatibilityExcessCoefficient = DEFAULT_COMPATIBILITY_EXCESS_COEFFICIENT;
+        CompatibilityDisjointCoefficient = DEFAULT_COMPATIBILITY_DISJOINT_COEFFICIENT;
+        CompatibilityWeightCoefficient = DEFAULT_COMPATIBILITY_WEIGHT_COEFFICIENT;
+        CompatibilityThreshold = DEFAULT_COMPATIBILITY_THRESHOLD;
+        TargetSpeciesCount = DEFAULT_TARGET_SPECIES_COUNT;
+        CompatibilityThresholdStep = DEFAULT_COMPATIBILITY_THRESHOLD_STEP;
+
         m_mutationAmountModifyWeight = DEFAULT_MUTATION_AMOUNT_MODIFY_WEIGHT;
         m_mutationAmountAddLink = DEFAULT_MUTATION_AMOUNT_ADD_LINK;
         m_mutationAmountAddNode = DEFAULT_MUTATION_AMOUNT_ADD_NODE;
@@ -105,61 +466,83 @@ public class ExperimentConfig {
         NextGenNumToMutateSimple = DEFAULT_NEXT_GEN_NUM_TO_MUTATE_SIMPLE;
 
         NumNewPoolsToCreate = DEFAULT_NUM_NEW_POOLS_TO_CREATE;
+
+        EvaluationPlanCacheMaxEntries = DEFAULT_EVALUATION_PLAN_CACHE_MAX_ENTRIES;
+        EvaluationPlanCacheMaxCost = DEFAULT_EVALUATION_PLAN_CACHE_MAX_COST;
+
+        MaxNodesPerNetwork = DEFAULT_MAX_NODES_PER_NETWORK;
+        MaxLinksPerNetwork = DEFAULT_MAX_LINKS_PER_NETWORK;
+        TargetMeanEvaluatedLinks = DEFAULT_TARGET_MEAN_EVALUATED_LINKS;
+        ComplexityPenaltyStep = DEFAULT_COMPLEXITY_PENALTY_STEP;
+
+        EnableFitnessCache = DEFAULT_ENABLE_FITNESS_CACHE;
+        FitnessCacheMaxEntries = DEFAULT_FITNESS_CACHE_MAX_ENTRIES;
+        FitnessCacheMaxReuses = DEFAULT_FITNESS_CACHE_MAX_REUSES;
+
+        EnableSuccessiveHalving = DEFAULT_ENABLE_SUCCESSIVE_HALVING;
+        SuccessiveHalvingInitialFraction = DEFAULT_SUCCESSIVE_HALVING_INITIAL_FRACTION;
+        SuccessiveHalvingReductionFactor = DEFAULT_SUCCESSIVE_HALVING_REDUCTION_FACTOR;
+
+        EnableAdaptiveMutation = DEFAULT_ENABLE_ADAPTIVE_MUTATION;
+        AdaptiveMutationDecay = DEFAULT_ADAPTIVE_MUTATION_DECAY;
+        AdaptiveMutationMinimumShare = DEFAULT_ADAPTIVE_MUTATION_MINIMUM_SHARE;
+        AdaptiveMutationExploration = DEFAULT_ADAPTIVE_MUTATION_EXPLORATION;
+
+        EnableSteadyState = DEFAULT_ENABLE_STEADY_STATE;
+        SteadyStateThreadCount = DEFAULT_STEADY_STATE_THREAD_COUNT;
+
+        EnableParallelOffspring = DEFAULT_ENABLE_PARALLEL_OFFSPRING;
+        OffspringThreadCount = DEFAULT_OFFSPRING_THREAD_COUNT;
+        RandomSeed = DEFAULT_RANDOM_SEED;
+
+        EnableVirtualThreadEvaluation = DEFAULT_ENABLE_VIRTUAL_THREAD_EVALUATION;
+        VirtualThreadConcurrency = DEFAULT_VIRTUAL_THREAD_CONCURRENCY;
+
+        EnableParallelEvaluation = DEFAULT_ENABLE_PARALLEL_EVALUATION;
+        EvaluationThreadCount = DEFAULT_EVALUATION_THREAD_COUNT;
+
+        MigrationInterval = DEFAULT_MIGRATION_INTERVAL;
+        MigrantCount = DEFAULT_MIGRANT_COUNT;
+        IslandMigrationTopology = DEFAULT_MIGRATION_TOPOLOGY;
     }
 
     public void setMutationAmountModifyWeight(int value) {
-        m_mutationAmountModifyWeight = value;
-        updateMutationAmounts();
+        m_mutationAmountModifyWeight = checkMutationAmount(value);
     }
 
     public void setMutationAmountAddLink(int value) {
-        m_mutationAmountAddLink = value;
-        updateMutationAmounts();
+        m_mutationAmountAddLink = checkMutationAmount(value);
     }
 
     public void setMutationAmountAddNode(int value) {
-        m_mutationAmountAddNode = value;
-        updateMutationAmounts();
+        m_mutationAmountAddNode = checkMutationAmount(value);
     }
 
     public void setMutationAmountDeleteLink(int value) {
-        m_mutationAmountDeleteLink = value;
-        updateMutationAmounts();
+        m_mutationAmountDeleteLink = checkMutationAmount(value);
     }
 
     public void setMutationAmountDeleteNode(int value) {
-        m_mutationAmountDeleteNode = value;
-        updateMutationAmounts();
+        m_mutationAmountDeleteNode = checkMutationAmount(value);
     }
 
     /**
-     * Choose a random mutation type, based on the amounts assigned to each type.
-     * The higher an amount, the more likely that type will be selected.
+     * Creates a registry of the built-in mutation operators, named after their MutationType and weighted by
+     * the configured amounts.  Experiments may register further operators with it.
      * @return
      */
-    public MutationType chooseMutationType() {
-        int selection = (int) RNG.rnd(m_mutationAmountTotal);
-
-        if (selection < m_mutationAmountModifyWeightScaled) return MutationType.MODIFY_WEIGHT;
-        if (selection < m_mutationAmountAddLinkScaled) return MutationType.ADD_LINK;
-        if (selection < m_mutationAmountAddNodeScaled) return MutationType.ADD_NODE;
-        if (selection < m_mutationAmountDeleteLinkScaled) return MutationType.DELETE_LINK;
-        if (selection < m_mutationAmountDeleteNodeScaled) return MutationType.DELETE_NODE;
-
-        return MutationType.NONE;
+    public MutationOperatorRegistry createMutationOperatorRegistry() {
+        MutationOperatorRegistry registry = new MutationOperatorRegistry();
+        registry.register(MutationType.MODIFY_WEIGHT.name(), network -> network.getMutator().mutateWeight(), m_mutationAmountModifyWeight);
+        registry.register(MutationType.ADD_LINK.name(), network -> network.getMutator().mutateNewLink(), m_mutationAmountAddLink);
+        registry.register(MutationType.ADD_NODE.name(), network -> network.getMutator().mutateNewNode(), m_mutationAmountAddNode);
+        registry.register(MutationType.DELETE_LINK.name(), network -> network.getMutator().mutateDeleteLink(), m_mutationAmountDeleteLink);
+        registry.register(MutationType.DELETE_NODE.name(), network -> network.getMutator().mutateDeleteNode(), m_mutationAmountDeleteNode);
+        return registry;
     }
 
-    private void updateMutationAmounts() {
-        m_mutationAmountTotal = m_mutationAmountModifyWeight +
-                m_mutationAmountAddLink +
-                m_mutationAmountAddNode +
-                m_mutationAmountDeleteLink +
-                m_mutationAmountDeleteNode;
-
-        m_mutationAmountModifyWeightScaled = m_mutationAmountModifyWeight;
-        m_mutationAmountAddLinkScaled = m_mutationAmountModifyWeightScaled + m_mutationAmountAddLink;
-        m_mutationAmountAddNodeScaled = m_mutationAmountAddLinkScaled + m_mutationAmountAddNode;
-        m_mutationAmountDeleteLinkScaled = m_mutationAmountAddNodeScaled + m_mutationAmountDeleteLink;
-        m_mutationAmountDeleteNodeScaled = m_mutationAmountDeleteLinkScaled + m_mutationAmountDeleteNode;
+    private static int checkMutationAmount(int value) {
+        if (value < 0) throw new IllegalArgumentException("Mutation amounts must not be negative.");
+        return value;
     }
 }
@@ -0,0 +1,150 @@
+package com.bateman.richard.evonn.lib.experiment;
+
+import com.bateman.richard.evonn.lib.ann.CompiledNetwork;
+import com.bateman.richard.evonn.lib.ann.Network;
+import com.bateman.richard.evonn.lib.ann.TopologyFingerprint;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the fitness of networks by their content (topology and weights), so unchanged agents
+ * (such as the elites carried into the next generation) need not be evaluated again.
+ * Only suitable for deterministic fitness functions, unless the reuse limit is set low enough to periodically
+ * re-evaluate agents in a stochastic environment.  All methods are thread-safe.
+ */
+public class FitnessCache {
+
+    /**
+     * Identifies a network by its topology and the exact bits of its weights.
+     */
+    public static class Key {
+        private final TopologyFingerprint m_fingerprint;
+        private final long[] m_weightBits;
+        private final int m_hashCode;
+
+        private Key(Network network) {
+            CompiledNetwork compiled = network.getCompiled();
+            double[] weights = compiled.getWeights();
+            m_fingerprint = compiled.getPlan().getFingerprint();
+            m_weightBits = new long[weights.length];
+            for (int k = 0; k < weights.length; k++) {
+                m_weightBits[k] = Double.doubleToLongBits(weights[k]);
+            }
+            m_hashCode = 31 * m_fingerprint.hashCode() + Arrays.hashCode(m_weightBits);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return m_hashCode == other.m_hashCode && m_fingerprint.equals(other.m_fingerprint) &&
+                    Arrays.equals(m_weightBits, other.m_weightBits);
+        }
+
+        @Override
+        public int hashCode() {
+            return m_hashCode;
+        }
+    }
+
+    /**
+     * A cached score, and the number of times it has been handed out.
+     */
+    private static class Entry {
+        private final double m_fitness;
+        private int m_reuseCount;
+
+        private Entry(double fitness) {
+            m_fitness = fitness;
+        }
+    }
+
+    private final LinkedHashMap<Key, Entry> m_entries;
+    private final int m_maxReuses;
+    private long m_hitCount;
+    private long m_missCount;
+
+    /**
+     * Creates a fitness cache.
+     * @param maxEntries The maximum number of scores remembered.  The least recently used are forgotten first.
+     * @param maxReuses The number of times a score may be reused before the network must be evaluated again.
+     *                  Use Integer.MAX_VALUE for deterministic fitness functions.
+     */
+    public FitnessCache(int maxEntries, int maxReuses) {
+        m_maxReuses = maxReuses;
+        m_entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Creates the key identifying the supplied network's current content.
+     * @param network
+     * @return
+     */
+    public Key createKey(Network network) {
+        return new Key(network);
+    }
+
+    /**
+     * Returns the remembered fitness for the key, or null if the network must be evaluated.
+     * @param key
+     * @return
+     */
+    public synchronized Double get(Key key) {
+        Entry entry = m_entries.get(key);
+        if (entry == null || entry.m_reuseCount >= m_maxReuses) {
+            if (entry != null) {
+                m_entries.remove(key);
+            }
+            m_missCount++;
+            return null;
+        }
+        entry.m_reuseCount++;
+        m_hitCount++;
+        return entry.m_fitness;
+    }
+
+    /**
+     * Remembers the fitness of the network identified by the key.
+     * @param key
+     * @param fitness
+     */
+    public synchronized void put(Key key, double fitness) {
+        m_entries.put(key, new Entry(fitness));
+    }
+
+    /**
+     * Forgets all remembered scores, e.g. when the environment the fitness function uses has changed.
+     */
+    public synchronized void invalidate() {
+        m_entries.clear();
+    }
+
+    /**
+     * The number of evaluations skipped thanks to the cache.
+     * @return
+     */
+    public synchronized long getHitCount() {
+        return m_hitCount;
+    }
+
+    /**
+     * The number of evaluations the cache could not answer.
+     * @return
+     */
+    public synchronized long getMissCount() {
+        return m_missCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Fitness cache: size=" + m_entries.size() + ", hits=" + m_hitCount + ", misses=" + m_missCount;
+    }
+}
@@ -0,0 +1,175 @@
+package com.bateman.richard.evonn.lib.experiment;
+
+import com.bateman.richard.evonn.lib.ann.Network;
+import com.bateman.richard.math.AliasTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The mutation operators an experiment chooses from, each with a weight.  Enabled operators are chosen with probability
+ * proportional to their weight, sampled in constant time from an alias table, however many operators are registered.
+ * Whether an operator is enabled is kept apart from its weight, so reweighting never re-enables a disabled operator.
+ *
+ * Besides the built-in operators (see {@link ExperimentConfig#createMutationOperatorRegistry()}), experiments may
+ * register their own.  The registry also keeps each operator's success statistics; the weights are adapted online
+ * by an {@link AdaptiveMutationScheduler}, when enabled.
+ * All methods are thread-safe.
+ */
+public class MutationOperatorRegistry {
+
+    /**
+     * A mutation applied to a network.
+     */
+    public interface Operator {
+        void apply(Network network);
+    }
+
+    private final ArrayList<String> m_names = new ArrayList<>();
+    private final ArrayList<Operator> m_operators = new ArrayList<>();
+    private double[] m_weights = new double[0];
+    private boolean[] m_enabled = new boolean[0];
+    private long[] m_applications = new long[0];
+    private long[] m_successes = new long[0];
+
+    /**
+     * Built from the enabled operators' weights whenever they change; null if no enabled operator has a positive weight.
+     */
+    private volatile AliasTable m_table;
+
+    /**
+     * Registers an operator, or replaces the operator registered under the same name.  Returns its index.
+     * @param name
+     * @param operator
+     * @param weight The operator's relative weight.  The operator is enabled if the weight is positive, and disabled
+     *               if it is 0.
+     * @return
+     */
+    public synchronized int register(String name, Operator operator, double weight) {
+        int index = m_names.indexOf(name);
+        if (index < 0) {
+            index = m_names.size();
+            m_names.add(name);
+            m_operators.add(operator);
+            m_weights = Arrays.copyOf(m_weights, index + 1);
+            m_enabled = Arrays.copyOf(m_enabled, index + 1);
+            m_applications = Arrays.copyOf(m_applications, index + 1);
+            m_successes = Arrays.copyOf(m_successes, index + 1);
+        }
+        else {
+            m_operators.set(index, operator);
+        }
+        m_enabled[index] = weight > 0;
+        setWeight(index, weight);
+        return index;
+    }
+
+    /**
+     * The number of operators registered.
+     * @return
+     */
+    public synchronized int size() {
+        return m_names.size();
+    }
+
+    /**
+     * Returns the index of the operator registered under the name, or -1.
+     * @param name
+     * @return
+     */
+    public synchronized int indexOf(String name) {
+        return m_names.indexOf(name);
+    }
+
+    public synchronized String getName(int index) {
+        return m_names.get(index);
+    }
+
+    public synchronized double getWeight(int index) {
+        return m_weights[index];
+    }
+
+    public synchronized boolean isEnabled(int index) {
+        return m_enabled[index];
+    }
+
+    /**
+     * Enables or disables an operator, without changing its weight.  A disabled operator is never chosen.
+     * @param index
+     * @param enabled
+     */
+    public synchronized void setEnabled(int index, boolean enabled) {
+        m_enabled[index] = enabled;
+        rebuildTable();
+    }
+
+    /**
+     * Changes an operator's weight.  Does not enable or disable the operator.
+     * @param index
+     * @param weight
+     */
+    public synchronized void setWeight(int index, double weight) {
+        if (!(weight >= 0) || Double.isInfinite(weight)) throw new IllegalArgumentException("Invalid weight: " + weight);
+        m_weights[index] = weight;
+        rebuildTable();
+    }
+
+    /**
+     * Chooses an enabled operator, with probability proportional to its weight, and returns its index.
+     * @return
+     */
+    public int choose() {
+        AliasTable table = m_table;
+        if (table == null) throw new IllegalStateException("No enabled mutation operator has a positive weight.");
+        return table.sample();
+    }
+
+    /**
+     * Applies the operator to the network, and counts the application.
+     * @param index
+     * @param network
+     */
+    public void apply(int index, Network network) {
+        Operator operator;
+        synchronized (this) {
+            operator = m_operators.get(index);
+            m_applications[index]++;
+        }
+        operator.apply(network);
+    }
+
+    /**
+     * Records that an application of the operator improved fitness.
+     * @param index
+     */
+    public synchronized void recordSuccess(int index) {
+        m_successes[index]++;
+    }
+
+    public synchronized long getApplicationCount(int index) {
+        return m_applications[index];
+    }
+
+    public synchronized long getSuccessCount(int index) {
+        return m_successes[index];
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("Mutation operators:");
+        for (int i = 0; i < m_names.size(); i++) {
+            sb.append(String.format(" %s=%.3g (%d/%d)", m_names.get(i), m_weights[i], m_successes[i], m_applications[i]));
+        }
+        return sb.toString();
+    }
+
+    private void rebuildTable() {
+        double[] weights = new double[m_weights.length];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = m_enabled[i] ? m_weights[i] : 0;
+            total += weights[i];
+        }
+        m_table = (total > 0) ? new AliasTable(weights) : null;
+    }
+}
@@ -1,18 +1,45 @@
 package com.bateman.richard.evonn.lib.experiment;
 
+import com.bateman.richard.math.RNG;
+
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A group of networks with identical topologies.
  */
 public class Pool {
+    private static final Comparator<Agent> FITTEST_FIRST = (a1, a2) -> Double.compare(a2.getFitnessScore(), a1.getFitnessScore());
+
     private ArrayList<Agent> m_agentsBufferLive;
     private ArrayList<Agent> m_agentsBufferNextGen;
     private final ArrayList<Agent> m_agentsBufferA = new ArrayList<>();
     private final ArrayList<Agent> m_agentsBufferB = new ArrayList<>();
 
+    /**
+     * Agents of an old generation, no longer referred to by either buffer, whose objects can be reused.
+     */
+    private final ArrayList<Agent> m_agentsRecycled = new ArrayList<>();
+
+    /**
+     * Whether every live agent has been evaluated.  Only tracked in steady state.
+     */
+    private boolean m_isEvaluated;
+
+    /**
+     * The mutation operator that created this pool's topology, or -1, and the fitness of the agent it was applied to.
+     */
+    private int m_mutationOperator = -1;
+    private double m_parentFitness;
+
+    /**
+     * The elapsed time spent evaluating this pool's agents.
+     */
+    private final AtomicLong m_evaluationNanos = new AtomicLong();
+
     /**
      * Returns the list of active agents in this pool.
      * @return
@@ -26,11 +53,108 @@ public class Pool {
         m_agentsBufferNextGen = m_agentsBufferB;
     }
 
+    /**
+     * In steady state, whether every live agent has been evaluated.  A steady-state child only replaces an agent
+     * it outscores, so the pool's agents must have scores first.
+     * @return
+     */
+    public boolean isEvaluated() {
+        return m_isEvaluated;
+    }
+
+    public void setEvaluated(boolean isEvaluated) {
+        m_isEvaluated = isEvaluated;
+    }
+
+    /**
+     * Records which mutation operator created this pool's topology, and the fitness of the agent it mutated,
+     * so the operator can be credited with the pool's progress.
+     * @param mutationOperator The operator's index in the experiment's mutation operator registry, or -1.
+     * @param parentFitness
+     */
+    public void setOrigin(int mutationOperator, double parentFitness) {
+        m_mutationOperator = mutationOperator;
+        m_parentFitness = parentFitness;
+    }
+
+    /**
+     * The mutation operator that created this pool's topology, or -1 if unknown or already credited.
+     * @return
+     */
+    public int getMutationOperator() {
+        return m_mutationOperator;
+    }
+
+    public double getParentFitness() {
+        return m_parentFitness;
+    }
+
+    /**
+     * Adds to the elapsed time spent evaluating this pool's agents.  Thread-safe.
+     * @param nanos
+     */
+    public void addEvaluationNanos(long nanos) {
+        m_evaluationNanos.addAndGet(nanos);
+    }
+
+    public long getEvaluationNanos() {
+        return m_evaluationNanos.get();
+    }
+
     public void sortAgentsByFitness() {
-        Collections.sort(m_agentsBufferLive, (a1, a2) -> Double.compare(a2.getFitnessScore(), a1.getFitnessScore()));
+        Collections.sort(m_agentsBufferLive, FITTEST_FIRST);
     }
 
+    /**
+     * Moves the k fittest agents to the front of the live list, best first, leaving the other agents in no
+     * particular order.  Uses quickselect, so takes expected O(n + k log k) time rather than the O(n log n) of
+     * sorting the whole pool.
+     * @param k
+     */
+    public void moveFittestToFront(int k) {
+        ArrayList<Agent> agents = m_agentsBufferLive;
+        k = Math.min(k, agents.size());
+        if (k <= 0) return;
+        int left = 0;
+        int right = agents.size() - 1;
+        while (left < right) {
+            int pivotIndex = partitionByFitness(agents, left, right, left + (int) RNG.rnd(right - left + 1));
+            if (pivotIndex == k - 1) break;
+            if (pivotIndex < k - 1) left = pivotIndex + 1;
+            else right = pivotIndex - 1;
+        }
+        agents.subList(0, k).sort(FITTEST_FIRST);
+    }
+
+    /**
+     * Moves the agents between left and right (inclusive) that are fitter than the pivot before it, and the others
+     * after it.  Returns the pivot's new index.
+     * @param agents
+     * @param left
+     * @param right
+     * @param pivotIndex
+     * @return
+     */
+    private static int partitionByFitness(ArrayList<Agent> agents, int left, int right, int pivotIndex) {
+        double pivotFitness = agents.get(pivotIndex).getFitnessScore();
+        Collections.swap(agents, pivotIndex, right);
+        int storeIndex = left;
+        for (int i = left; i < right; i++) {
+            if (agents.get(i).getFitnessScore() > pivotFitness) {
+                Collections.swap(agents, storeIndex, i);
+                storeIndex++;
+            }
+        }
+        Collections.swap(agents, storeIndex, right);
+        return storeIndex;
+    }
+
+    /**
+     * Empties the next generation buffer.  Its agents belong to the generation before the live one, so they are
+     * kept for reuse by {@link #addCopyToNextGen(Agent)}.
+     */
     public void prepareForNextGen() {
+        m_agentsRecycled.addAll(m_agentsBufferNextGen);
         m_agentsBufferNextGen.clear();
     }
 
@@ -38,6 +162,48 @@ public class Pool {
         m_agentsBufferNextGen.add(a);
     }
 
+    /**
+     * Adds a copy of the supplied agent to the next generation, and returns the copy.
+     * The copy reuses a recycled agent when one is available, so once the buffers have filled up a generation
+     * with an unchanged topology allocates nothing.  Every agent added this way is a distinct object, so the same
+     * agent is never in both buffers, and it is always safe to recycle the older generation.
+     * @param source
+     * @return
+     */
+    public Agent addCopyToNextGen(Agent source) {
+        Agent copy;
+        if (m_agentsRecycled.isEmpty()) {
+            copy = source.deepCopy();
+        }
+        else {
+            copy = m_agentsRecycled.remove(m_agentsRecycled.size() - 1);
+            copy.copyFrom(source);
+        }
+        m_agentsBufferNextGen.add(copy);
+        return copy;
+    }
+
+    /**
+     * Adds an agent with the topology of the supplied agent to the next generation, and returns it.
+     * Like {@link #addCopyToNextGen(Agent)}, a recycled agent is reused when available, but its weights are not
+     * copied:  the caller is expected to overwrite every weight (e.g. by crossover).
+     * @param topologySource
+     * @return
+     */
+    public Agent addTopologyCopyToNextGen(Agent topologySource) {
+        Agent copy;
+        if (m_agentsRecycled.isEmpty()) {
+            copy = topologySource.deepCopy();
+            copy.setFitnessScore(0);
+        }
+        else {
+            copy = m_agentsRecycled.remove(m_agentsRecycled.size() - 1);
+            copy.copyTopologyFrom(topologySource);
+        }
+        m_agentsBufferNextGen.add(copy);
+        return copy;
+    }
+
     public void makeNextGenLive() {
         ArrayList<Agent> previousLive = m_agentsBufferLive;
         m_agentsBufferLive = m_agentsBufferNextGen;
@@ -0,0 +1,98 @@
+package com.bateman.richard.evonn.lib.experiment;
+
+import com.bateman.richard.evonn.lib.ann.GeneSequence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clusters agents into species by NEAT compatibility distance.
+ *
+ * Each agent is compared against the cached gene snapshot of each species' representative in turn, and joins the
+ * first species within the compatibility threshold (or founds a new one).  Distances are computed with a linear merge
+ * over id-sorted gene arrays (see {@link GeneSequence}), so assigning agents costs O(agents x species) merges with
+ * no maps or allocation, apart from one snapshot per species per speciation.
+ */
+public class SpeciationEngine {
+    private final ArrayList<Species> m_species = new ArrayList<>();
+    private final double m_excessCoefficient;
+    private final double m_disjointCoefficient;
+    private final double m_weightCoefficient;
+    private final int m_targetSpeciesCount;
+    private final double m_thresholdStep;
+    private double m_compatibilityThreshold;
+    private int m_nextSpeciesId;
+
+    /**
+     * Creates a speciation engine using the compatibility settings of the configuration.
+     * @param config
+     */
+    public SpeciationEngine(ExperimentConfig config) {
+        m_excessCoefficient = config.CompatibilityExcessCoefficient;
+        m_disjointCoefficient = config.CompatibilityDisjointCoefficient;
+        m_weightCoefficient = config.CompatibilityWeightCoefficient;
+        m_compatibilityThreshold = config.CompatibilityThreshold;
+        m_targetSpeciesCount = config.TargetSpeciesCount;
+        m_thresholdStep = config.CompatibilityThresholdStep;
+    }
+
+    /**
+     * The current species.
+     * @return
+     */
+    public ArrayList<Species> getSpecies() {
+        return m_species;
+    }
+
+    /**
+     * The distance under which an agent belongs to a species.
+     * @return
+     */
+    public double getCompatibilityThreshold() {
+        return m_compatibilityThreshold;
+    }
+
+    /**
+     * Assigns every agent to a species, and records the species id on the agent.
+     * Species left without members are dropped, and every remaining species takes its fittest member as its
+     * new representative.  If a target species count is configured, the threshold is then nudged towards it.
+     * @param agents
+     */
+    public void speciate(List<Agent> agents) {
+        for (Species s : m_species) {
+            s.clearMembers();
+        }
+
+        for (Agent a : agents) {
+            Species match = null;
+            for (int s = 0; s < m_species.size() && match == null; s++) {
+                Species candidate = m_species.get(s);
+                double distance = candidate.getRepresentative().distanceTo(a.getNetwork(),
+                        m_excessCoefficient, m_disjointCoefficient, m_weightCoefficient);
+                if (distance < m_compatibilityThreshold) {
+                    match = candidate;
+                }
+            }
+            if (match == null) {
+                match = new Species(m_nextSpeciesId++, GeneSequence.of(a.getNetwork()));
+                m_species.add(match);
+            }
+            match.addMember(a);
+            a.setSpeciesId(match.getId());
+        }
+
+        m_species.removeIf(s -> s.getMembers().isEmpty());
+        for (Species s : m_species) {
+            s.updateRepresentative();
+        }
+
+        if (m_targetSpeciesCount > 0) {
+            if (m_species.size() < m_targetSpeciesCount) {
+                m_compatibilityThreshold = Math.max(m_thresholdStep, m_compatibilityThreshold - m_thresholdStep);
+            }
+            else if (m_species.size() > m_targetSpeciesCount) {
+                m_compatibilityThreshold += m_thresholdStep;
+            }
+        }
+    }
+}
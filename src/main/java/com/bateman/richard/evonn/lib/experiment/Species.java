@@ -0,0 +1,87 @@
+package com.bateman.richard.evonn.lib.experiment;
+
+import com.bateman.richard.evonn.lib.ann.GeneSequence;
+
+import java.util.ArrayList;
+
+/**
+ * A group of agents whose networks are structurally similar (within the compatibility threshold of the
+ * species' representative).
+ */
+public class Species {
+    private final int m_id;
+    private final ArrayList<Agent> m_members = new ArrayList<>();
+    private GeneSequence m_representative;
+
+    /**
+     * Creates a species represented by the supplied genes.
+     * @param id
+     * @param representative
+     */
+    public Species(int id, GeneSequence representative) {
+        m_id = id;
+        m_representative = representative;
+    }
+
+    /**
+     * A unique id for this species.
+     * @return
+     */
+    public int getId() {
+        return m_id;
+    }
+
+    /**
+     * A snapshot of the genes every agent is compared against.  It is only replaced once per speciation, so
+     * comparisons never need to look at a live network of the species.
+     * @return
+     */
+    public GeneSequence getRepresentative() {
+        return m_representative;
+    }
+
+    /**
+     * The agents assigned to this species by the latest speciation.
+     * @return
+     */
+    public ArrayList<Agent> getMembers() {
+        return m_members;
+    }
+
+    /**
+     * The fittest member, or null if the species has no members.
+     * @return
+     */
+    public Agent getBestMember() {
+        Agent best = null;
+        for (Agent a : m_members) {
+            if (best == null || a.getFitnessScore() > best.getFitnessScore()) {
+                best = a;
+            }
+        }
+        return best;
+    }
+
+    void addMember(Agent a) {
+        m_members.add(a);
+    }
+
+    void clearMembers() {
+        m_members.clear();
+    }
+
+    /**
+     * Replaces the representative with a snapshot of the fittest member.
+     */
+    void updateRepresentative() {
+        Agent best = getBestMember();
+        if (best != null) {
+            m_representative = GeneSequence.of(best.getNetwork());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Species#" + m_id + ", members=" + m_members.size();
+    }
+}
@@ -0,0 +1,82 @@
+package com.bateman.richard.evonn.lib.island;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Starts the islands of an island model as separate JVM processes on this host.  Each island has its own heap
+ * and garbage collector, so a collection pauses one island only, and JVM options such as -XX:+UseNUMA or a
+ * per-island -Xmx let the islands spread over the host's memory nodes.
+ *
+ * Every island runs the same main class, with the same classpath and arguments as supplied here.  It learns which
+ * island it is from system properties, read by {@link IslandMigrator#fromSystemProperties}.
+ */
+public class IslandLauncher {
+
+    /**
+     * Starts one process per island.  Their output is sent to this process's output.
+     * @param mainClass The class whose main method runs an experiment, passing
+     *                  {@link IslandMigrator#fromSystemProperties} to ExperimentBase.setIslandMigrator.
+     * @param islandCount
+     * @param migrationDirectory The directory in which the islands exchange migrants.
+     * @param jvmOptions Options for every island's JVM, such as -Xmx or -XX:+UseNUMA.
+     * @param arguments The arguments to every island's main method.
+     * @return
+     * @throws IOException
+     */
+    public static List<Process> launch(String mainClass, int islandCount, String migrationDirectory,
+                                       List<String> jvmOptions, List<String> arguments) throws IOException {
+        if (islandCount < 1 || islandCount > IslandMigrator.MAX_ISLAND_COUNT) throw new IllegalArgumentException("Invalid island count: " + islandCount);
+        String javaExecutable = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classPath = System.getProperty("java.class.path");
+
+        ArrayList<Process> islands = new ArrayList<>(islandCount);
+        try {
+            for (int islandId = 0; islandId < islandCount; islandId++) {
+                ArrayList<String> command = new ArrayList<>();
+                command.add(javaExecutable);
+                command.addAll(jvmOptions);
+                command.add("-D" + IslandMigrator.PROPERTY_ISLAND_ID + "=" + islandId);
+                command.add("-D" + IslandMigrator.PROPERTY_ISLAND_COUNT + "=" + islandCount);
+                command.add("-D" + IslandMigrator.PROPERTY_MIGRATION_DIRECTORY + "=" + migrationDirectory);
+                command.add("-cp");
+                command.add(classPath);
+                command.add(mainClass);
+                command.addAll(arguments);
+                islands.add(new ProcessBuilder(command).inheritIO().start());
+            }
+        }
+        catch (IOException e) {
+            destroy(islands);
+            throw e;
+        }
+        return islands;
+    }
+
+    /**
+     * Waits for every island to exit, and returns the highest exit code.
+     * @param islands
+     * @return
+     * @throws InterruptedException
+     */
+    public static int waitFor(List<Process> islands) throws InterruptedException {
+        int exitCode = 0;
+        for (Process island : islands) {
+            exitCode = Math.max(exitCode, island.waitFor());
+        }
+        return exitCode;
+    }
+
+    /**
+     * Stops every island.  An island stops on its own once it reaches the desired fitness, so this is needed
+     * to stop the other islands once one has.
+     * @param islands
+     */
+    public static void destroy(List<Process> islands) {
+        for (Process island : islands) {
+            island.destroy();
+        }
+    }
+}
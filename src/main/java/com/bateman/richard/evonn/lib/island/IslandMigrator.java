@@ -0,0 +1,217 @@
+package com.bateman.richard.evonn.lib.island;
+
+import com.bateman.richard.evonn.lib.ann.ANNIO;
+import com.bateman.richard.evonn.lib.ann.Network;
+import com.bateman.richard.evonn.lib.experiment.ExperimentConfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exchanges migrants between the islands of an island model:  several processes on the same host, each evolving its
+ * own pools, that periodically send their best networks to each other through a shared directory.
+ *
+ * Each migration, an island writes its migrants (in the ANNIO text format) to a new file named after the island and
+ * a migration epoch, which is written under a temporary name and then atomically renamed, so other islands never
+ * see a partially written file.  Receiving never blocks:  an island reads the newest file of each island it receives
+ * from, if it has not read it already, and otherwise carries on without migrants.  Islands therefore need not run
+ * in lockstep, and a slow or stopped island only means fewer migrants for the others.
+ */
+public class IslandMigrator {
+    /**
+     * The system properties with which {@link IslandLauncher} tells each process which island it is.
+     */
+    public static final String PROPERTY_ISLAND_ID = "evonn.island.id";
+    public static final String PROPERTY_ISLAND_COUNT = "evonn.island.count";
+    public static final String PROPERTY_MIGRATION_DIRECTORY = "evonn.island.dir";
+
+    /**
+     * The number of innovation ids reserved for each island.
+     */
+    public static final int INNOVATION_ID_RANGE = 1 << 24;
+
+    /**
+     * The maximum number of islands, such that every island's innovation id range fits an int.
+     */
+    public static final int MAX_ISLAND_COUNT = (Integer.MAX_VALUE / INNOVATION_ID_RANGE) - 1;
+
+    private static final String FILE_PREFIX = "island-";
+    private static final String FILE_EPOCH = "-epoch-";
+    private static final String FILE_EXTENSION = ".txt";
+    private static final String FILE_EXTENSION_TEMP = ".tmp";
+
+    private final int m_islandId;
+    private final int m_islandCount;
+    private final Path m_directory;
+    private final ExperimentConfig.MigrationTopology m_topology;
+
+    /**
+     * The next epoch this island will write.
+     */
+    private int m_epoch;
+
+    /**
+     * For each island, the newest epoch this island has read from it.
+     */
+    private final int[] m_lastEpochRead;
+
+    /**
+     * Creates the migrator for one island.
+     * @param islandId This island's id, from 0 to islandCount - 1.
+     * @param islandCount
+     * @param directory The directory shared by all islands.
+     * @param topology
+     */
+    public IslandMigrator(int islandId, int islandCount, String directory, ExperimentConfig.MigrationTopology topology) {
+        if (islandCount < 1 || islandCount > MAX_ISLAND_COUNT) throw new IllegalArgumentException("Invalid island count: " + islandCount);
+        if (islandId < 0 || islandId >= islandCount) throw new IllegalArgumentException("Invalid island id: " + islandId);
+        m_islandId = islandId;
+        m_islandCount = islandCount;
+        m_directory = Paths.get(directory);
+        m_topology = topology;
+        m_lastEpochRead = new int[islandCount];
+        for (int i = 0; i < islandCount; i++) {
+            m_lastEpochRead[i] = -1;
+        }
+    }
+
+    /**
+     * Creates the migrator for the island this process was launched as by {@link IslandLauncher},
+     * or returns null if the process was not launched as an island.
+     * @param topology
+     * @return
+     */
+    public static IslandMigrator fromSystemProperties(ExperimentConfig.MigrationTopology topology) {
+        String islandId = System.getProperty(PROPERTY_ISLAND_ID);
+        String islandCount = System.getProperty(PROPERTY_ISLAND_COUNT);
+        String directory = System.getProperty(PROPERTY_MIGRATION_DIRECTORY);
+        if (islandId == null || islandCount == null || directory == null) return null;
+        return new IslandMigrator(Integer.parseInt(islandId), Integer.parseInt(islandCount), directory, topology);
+    }
+
+    public int getIslandId() {
+        return m_islandId;
+    }
+
+    public int getIslandCount() {
+        return m_islandCount;
+    }
+
+    /**
+     * The first innovation id reserved for this island.  Ids below the first island's range are shared.
+     * @return
+     */
+    public int getFirstInnovationId() {
+        return (m_islandId + 1) * INNOVATION_ID_RANGE;
+    }
+
+    /**
+     * The end (exclusive) of the innovation ids reserved for this island.
+     * @return
+     */
+    public int getEndInnovationId() {
+        return getFirstInnovationId() + INNOVATION_ID_RANGE;
+    }
+
+    /**
+     * Sends the supplied networks to the other islands.
+     * @param migrants
+     * @throws IOException
+     */
+    public void emigrate(List<Network> migrants) throws IOException {
+        Files.createDirectories(m_directory);
+        int epoch = m_epoch++;
+        Path tempFile = m_directory.resolve(FILE_PREFIX + m_islandId + FILE_EXTENSION_TEMP);
+        ANNIO.saveToFile(migrants, tempFile.toString());
+        Files.move(tempFile, getMigrantFile(m_islandId, epoch), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // Keep the previous epoch's file, as another island may still be reading it.
+        if (epoch >= 2) {
+            Files.deleteIfExists(getMigrantFile(m_islandId, epoch - 2));
+        }
+    }
+
+    /**
+     * Receives the networks the other islands have sent since the last call, without waiting for any.
+     * @return
+     * @throws IOException
+     */
+    public List<Network> immigrate() throws IOException {
+        ArrayList<Network> immigrants = new ArrayList<>();
+        for (int sourceId : getSourceIslands()) {
+            int epoch = findNewestEpoch(sourceId);
+            if (epoch <= m_lastEpochRead[sourceId]) continue;
+            try {
+                immigrants.addAll(ANNIO.loadFromFile(getMigrantFile(sourceId, epoch).toString()));
+                m_lastEpochRead[sourceId] = epoch;
+            }
+            catch (NoSuchFileException e) {
+                // The source island has already replaced the file; its newer file is read next time.
+            }
+        }
+        return immigrants;
+    }
+
+    /**
+     * Deletes this island's migrant files.
+     * @throws IOException
+     */
+    public void cleanUp() throws IOException {
+        for (int epoch = Math.max(0, m_epoch - 2); epoch < m_epoch; epoch++) {
+            Files.deleteIfExists(getMigrantFile(m_islandId, epoch));
+        }
+    }
+
+    /**
+     * The islands this island receives migrants from.
+     * @return
+     */
+    private int[] getSourceIslands() {
+        if (m_islandCount == 1) return new int[0];
+        switch (m_topology) {
+            case FULLY_CONNECTED:
+                int[] sources = new int[m_islandCount - 1];
+                for (int i = 0, s = 0; i < m_islandCount; i++) {
+                    if (i != m_islandId) sources[s++] = i;
+                }
+                return sources;
+            case RING:
+            default:
+                return new int[] { (m_islandId + m_islandCount - 1) % m_islandCount };
+        }
+    }
+
+    /**
+     * Returns the newest epoch written by the supplied island, or -1 if it has not written any.
+     * @param islandId
+     * @return
+     */
+    private int findNewestEpoch(int islandId) {
+        String prefix = FILE_PREFIX + islandId + FILE_EPOCH;
+        String[] fileNames = m_directory.toFile().list();
+        int newestEpoch = -1;
+        if (fileNames == null) return newestEpoch;
+        for (String fileName : fileNames) {
+            if (fileName.startsWith(prefix) && fileName.endsWith(FILE_EXTENSION)) {
+                try {
+                    int epoch = Integer.parseInt(fileName.substring(prefix.length(), fileName.length() - FILE_EXTENSION.length()));
+                    newestEpoch = Math.max(newestEpoch, epoch);
+                }
+                catch (NumberFormatException e) {
+                    // Not a migrant file.
+                }
+            }
+        }
+        return newestEpoch;
+    }
+
+    private Path getMigrantFile(int islandId, int epoch) {
+        return m_directory.resolve(FILE_PREFIX + islandId + FILE_EPOCH + epoch + FILE_EXTENSION);
+    }
+}
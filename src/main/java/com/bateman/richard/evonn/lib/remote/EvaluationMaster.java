@@ -0,0 +1,418 @@
+package com.bateman.richard.evonn.lib.remote;
+
+import com.bateman.richard.evonn.lib.ann.ANNIO;
+import com.bateman.richard.evonn.lib.ann.Network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Farms fitness evaluations out to {@link FitnessWorker}s over TCP.
+ *
+ * Workers connect to the master whenever they like.  Networks to evaluate are serialized once, into their compact
+ * binary representation, and queued as tasks.  Each worker connection sends tasks in batches, and keeps up to
+ * maxBatchesInFlight batches outstanding, so a worker always has its next batch waiting while it evaluates one;
+ * beyond that, tasks stay in the shared queue for whichever worker is free first, so fast workers take more tasks
+ * than slow ones.  If a worker is lost, its outstanding tasks are put back at the front of the queue for the other
+ * workers, up to maxRetries times each.  All methods are thread-safe.
+ */
+public class EvaluationMaster implements Closeable {
+    public static final int DEFAULT_BATCH_SIZE = 4;
+    public static final int DEFAULT_MAX_BATCHES_IN_FLIGHT = 2;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /**
+     * A network to evaluate.
+     */
+    private static class Task {
+        private final long m_id;
+        private final byte[] m_payload;
+        private final Job m_job;
+        private final int m_index;
+        private int m_attempts;
+
+        private Task(long id, byte[] payload, Job job, int index) {
+            m_id = id;
+            m_payload = payload;
+            m_job = job;
+            m_index = index;
+        }
+    }
+
+    /**
+     * The tasks of one call to evaluate.
+     */
+    private static class Job {
+        private final double[] m_results;
+        private final CountDownLatch m_remaining;
+        private volatile IOException m_failure;
+
+        private Job(int taskCount) {
+            m_results = new double[taskCount];
+            m_remaining = new CountDownLatch(taskCount);
+        }
+    }
+
+    /**
+     * Tasks sent to a worker together.
+     */
+    private static class Batch {
+        private final Task[] m_tasks;
+        private long m_sentNanos;
+
+        private Batch(Task[] tasks) {
+            m_tasks = tasks;
+        }
+    }
+
+    private final ServerSocket m_serverSocket;
+    private final int m_batchSize;
+    private final int m_maxBatchesInFlight;
+    private final int m_maxRetries;
+    private final LinkedBlockingDeque<Task> m_queue = new LinkedBlockingDeque<>();
+    private final CopyOnWriteArrayList<WorkerConnection> m_workers = new CopyOnWriteArrayList<>();
+    private final AtomicLong m_nextTaskId = new AtomicLong();
+    private final AtomicLong m_retryCount = new AtomicLong();
+    private volatile boolean m_closed;
+
+    /**
+     * Creates a master listening on the supplied port, with the default batch size, pipelining depth and retries.
+     * @param port The port, or 0 for any free port (see {@link #getPort()}).
+     * @throws IOException
+     */
+    public EvaluationMaster(int port) throws IOException {
+        this(port, DEFAULT_BATCH_SIZE, DEFAULT_MAX_BATCHES_IN_FLIGHT, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Creates a master listening on the supplied port.
+     * @param port The port, or 0 for any free port (see {@link #getPort()}).
+     * @param batchSize The maximum number of tasks sent to a worker at once.
+     * @param maxBatchesInFlight The maximum number of batches a worker may have outstanding.
+     * @param maxRetries The number of times a task is retried after losing the worker evaluating it.
+     * @throws IOException
+     */
+    public EvaluationMaster(int port, int batchSize, int maxBatchesInFlight, int maxRetries) throws IOException {
+        if (batchSize < 1 || maxBatchesInFlight < 1 || maxRetries < 0) throw new IllegalArgumentException("Invalid evaluation master settings.");
+        m_batchSize = batchSize;
+        m_maxBatchesInFlight = maxBatchesInFlight;
+        m_maxRetries = maxRetries;
+        m_serverSocket = new ServerSocket(port);
+
+        Thread acceptThread = new Thread(this::acceptWorkers, "EvaluationMaster-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * The port workers should connect to.
+     * @return
+     */
+    public int getPort() {
+        return m_serverSocket.getLocalPort();
+    }
+
+    /**
+     * The number of workers currently connected.
+     * @return
+     */
+    public int getWorkerCount() {
+        int count = 0;
+        for (WorkerConnection worker : m_workers) {
+            if (!worker.m_failed) count++;
+        }
+        return count;
+    }
+
+    /**
+     * The number of tasks put back in the queue after losing their worker.
+     * @return
+     */
+    public long getRetryCount() {
+        return m_retryCount.get();
+    }
+
+    /**
+     * A snapshot of the work done by every worker that has connected, including lost workers.
+     * @return
+     */
+    public List<WorkerMetrics> getWorkerMetrics() {
+        ArrayList<WorkerMetrics> metrics = new ArrayList<>();
+        for (WorkerConnection worker : m_workers) {
+            metrics.add(worker.getMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * Evaluates the supplied networks on the workers, and returns their fitness scores in the same order.
+     * Blocks until every network has been evaluated; if no worker is connected, waits for one to connect.
+     * The networks are serialized before this method starts waiting, and are not used afterwards.
+     * @param networks
+     * @return
+     * @throws IOException If a network could not be evaluated within the allowed retries.
+     * @throws InterruptedException
+     */
+    public double[] evaluate(List<Network> networks) throws IOException, InterruptedException {
+        if (m_closed) throw new IllegalStateException("The evaluation master is closed.");
+        Job job = new Job(networks.size());
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(buffer);
+        for (int n = 0; n < networks.size(); n++) {
+            buffer.reset();
+            ANNIO.writeBinary(networks.get(n), output);
+            output.flush();
+            m_queue.addLast(new Task(m_nextTaskId.getAndIncrement(), buffer.toByteArray(), job, n));
+        }
+
+        job.m_remaining.await();
+        if (job.m_failure != null) throw job.m_failure;
+        return job.m_results;
+    }
+
+    /**
+     * Stops accepting workers, and disconnects the connected ones.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        m_closed = true;
+        m_serverSocket.close();
+        for (WorkerConnection worker : m_workers) {
+            worker.close();
+        }
+    }
+
+    private void acceptWorkers() {
+        while (!m_closed) {
+            Socket socket;
+            try {
+                socket = m_serverSocket.accept();
+            }
+            catch (IOException e) {
+                // The server socket has been closed.
+                return;
+            }
+            try {
+                // The handshake runs on the connection's own thread, so a silent client cannot hold up the others.
+                new WorkerConnection(socket).start();
+            }
+            catch (IOException e) {
+                rejectWorker(socket, e);
+            }
+        }
+    }
+
+    /**
+     * Puts a task that was outstanding on a lost worker back at the front of the queue, or fails its job
+     * if it has been retried too often.
+     * @param task
+     */
+    private void retry(Task task) {
+        task.m_attempts++;
+        if (task.m_attempts > m_maxRetries) {
+            task.m_job.m_failure = new IOException("Gave up on a network after losing " + task.m_attempts + " workers evaluating it.");
+            task.m_job.m_remaining.countDown();
+        }
+        else {
+            m_retryCount.incrementAndGet();
+            m_queue.addFirst(task);
+        }
+    }
+
+    private static void rejectWorker(Socket socket, IOException cause) {
+        System.out.println("Rejected worker " + socket.getRemoteSocketAddress() + ": " + cause.getMessage());
+        closeQuietly(socket);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // Nothing more to do.
+        }
+    }
+
+    /**
+     * The connection to one worker.  A receiver thread shakes hands with the worker, publishes the connection, and
+     * then reads the results; a sender thread takes batches from the queue as long as the worker has fewer than
+     * maxBatchesInFlight outstanding.  The worker answers batches in the order they were sent.
+     */
+    private class WorkerConnection {
+        private final Socket m_socket;
+        private final String m_address;
+        private final DataInputStream m_input;
+        private final DataOutputStream m_output;
+        private final Semaphore m_batchPermits = new Semaphore(m_maxBatchesInFlight);
+        private final ConcurrentLinkedQueue<Batch> m_batchesInFlight = new ConcurrentLinkedQueue<>();
+        private final long m_connectedNanos = System.nanoTime();
+        private final Thread m_sender;
+        private volatile boolean m_failed;
+        private volatile long m_disconnectedNanos;
+
+        private volatile long m_tasksCompleted;
+        private volatile long m_batchesCompleted;
+        private volatile long m_bytesSent;
+        private volatile long m_batchLatencyNanos;
+
+        private WorkerConnection(Socket socket) throws IOException {
+            m_socket = socket;
+            m_address = String.valueOf(socket.getRemoteSocketAddress());
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            m_input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            m_output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            m_sender = new Thread(this::sendBatches, "EvaluationMaster-send-" + m_address);
+            m_sender.setDaemon(true);
+        }
+
+        private void start() {
+            Thread receiver = new Thread(this::connect, "EvaluationMaster-receive-" + m_address);
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+
+        private void connect() {
+            try {
+                m_socket.setSoTimeout(RemoteProtocol.HANDSHAKE_TIMEOUT);
+                RemoteProtocol.readHandshake(m_input);
+                RemoteProtocol.writeHandshake(m_output);
+                // Evaluations may take arbitrarily long.
+                m_socket.setSoTimeout(0);
+            }
+            catch (IOException e) {
+                rejectWorker(m_socket, e);
+                return;
+            }
+
+            m_workers.add(this);
+            // A close that ran before the connection was published has not closed it.
+            if (m_closed) {
+                close();
+                return;
+            }
+            m_sender.start();
+            receiveResults();
+        }
+
+        private void sendBatches() {
+            ArrayList<Task> tasks = new ArrayList<>(m_batchSize);
+            try {
+                while (!m_failed) {
+                    m_batchPermits.acquire();
+                    tasks.clear();
+                    tasks.add(m_queue.takeFirst());
+                    m_queue.drainTo(tasks, m_batchSize - 1);
+                    Batch batch = new Batch(tasks.toArray(new Task[tasks.size()]));
+
+                    synchronized (this) {
+                        if (m_failed) {
+                            for (Task task : batch.m_tasks) m_queue.addFirst(task);
+                            return;
+                        }
+                        batch.m_sentNanos = System.nanoTime();
+                        m_batchesInFlight.add(batch);
+                    }
+                    m_output.writeByte(RemoteProtocol.MESSAGE_BATCH);
+                    m_output.writeInt(batch.m_tasks.length);
+                    long bytesSent = 0;
+                    for (Task task : batch.m_tasks) {
+                        m_output.writeLong(task.m_id);
+                        m_output.writeInt(task.m_payload.length);
+                        m_output.write(task.m_payload);
+                        bytesSent += task.m_payload.length;
+                    }
+                    m_output.flush();
+                    m_bytesSent += bytesSent;
+                }
+            }
+            catch (InterruptedException e) {
+                // The connection has failed.
+            }
+            catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void receiveResults() {
+            try {
+                while (!m_failed) {
+                    byte message = m_input.readByte();
+                    if (message != RemoteProtocol.MESSAGE_RESULTS) throw new IOException("Unexpected message: " + message);
+                    int taskCount = m_input.readInt();
+                    Batch batch = m_batchesInFlight.peek();
+                    if (batch == null || batch.m_tasks.length != taskCount) throw new IOException("Results do not match a batch sent.");
+                    for (Task task : batch.m_tasks) {
+                        if (m_input.readLong() != task.m_id) throw new IOException("Results do not match a batch sent.");
+                        task.m_job.m_results[task.m_index] = m_input.readDouble();
+                    }
+
+                    // Only complete the tasks once the whole batch has arrived; a partial batch is retried.
+                    synchronized (this) {
+                        if (m_failed) return;
+                        m_batchesInFlight.poll();
+                    }
+                    for (Task task : batch.m_tasks) {
+                        task.m_job.m_remaining.countDown();
+                    }
+                    m_batchLatencyNanos += System.nanoTime() - batch.m_sentNanos;
+                    m_tasksCompleted += taskCount;
+                    m_batchesCompleted++;
+                    m_batchPermits.release();
+                }
+            }
+            catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Disconnects from a lost worker, and retries its outstanding tasks on the other workers.
+         * @param cause
+         */
+        private void fail(IOException cause) {
+            synchronized (this) {
+                if (m_failed) return;
+                m_failed = true;
+                m_disconnectedNanos = System.nanoTime();
+            }
+            if (!m_closed) {
+                System.out.println("Lost worker " + m_address + ": " + cause.getMessage());
+            }
+            closeQuietly(m_socket);
+            m_sender.interrupt();
+            Batch batch;
+            while ((batch = m_batchesInFlight.poll()) != null) {
+                for (Task task : batch.m_tasks) {
+                    retry(task);
+                }
+            }
+        }
+
+        private void close() {
+            fail(new IOException("Closed."));
+        }
+
+        private WorkerMetrics getMetrics() {
+            long connectedUntil = m_failed ? m_disconnectedNanos : System.nanoTime();
+            return new WorkerMetrics(m_address, !m_failed, m_tasksCompleted, m_batchesCompleted, m_bytesSent,
+                    m_batchLatencyNanos, connectedUntil - m_connectedNanos);
+        }
+    }
+}
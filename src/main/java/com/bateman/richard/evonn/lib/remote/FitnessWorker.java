@@ -0,0 +1,92 @@
+package com.bateman.richard.evonn.lib.remote;
+
+import com.bateman.richard.evonn.lib.ann.ANNIO;
+import com.bateman.richard.evonn.lib.ann.Network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Evaluates networks sent by an {@link EvaluationMaster}, one at a time, with the supplied fitness function.
+ * Run as many workers as there are cores to spare, in one process or several, on this host or others.
+ */
+public class FitnessWorker {
+    private final String m_host;
+    private final int m_port;
+    private final RemoteFitnessFunction m_fitnessFunction;
+    private long m_tasksEvaluated;
+
+    /**
+     * Creates a worker for the master listening at the supplied host and port.
+     * @param host
+     * @param port
+     * @param fitnessFunction
+     */
+    public FitnessWorker(String host, int port, RemoteFitnessFunction fitnessFunction) {
+        m_host = host;
+        m_port = port;
+        m_fitnessFunction = fitnessFunction;
+    }
+
+    /**
+     * The number of networks this worker has evaluated.
+     * @return
+     */
+    public long getTasksEvaluated() {
+        return m_tasksEvaluated;
+    }
+
+    /**
+     * Connects to the master and evaluates the networks it sends, until the master closes the connection.
+     * @throws IOException
+     */
+    public void run() throws IOException {
+        try (Socket socket = new Socket(m_host, m_port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            RemoteProtocol.writeHandshake(output);
+            RemoteProtocol.readHandshake(input);
+
+            while (true) {
+                byte message;
+                try {
+                    message = input.readByte();
+                }
+                catch (EOFException e) {
+                    // The master has closed the connection.
+                    return;
+                }
+                if (message != RemoteProtocol.MESSAGE_BATCH) throw new IOException("Unexpected message: " + message);
+                evaluateBatch(input, output);
+            }
+        }
+    }
+
+    private void evaluateBatch(DataInputStream input, DataOutputStream output) throws IOException {
+        int taskCount = input.readInt();
+        long[] taskIds = new long[taskCount];
+        Network[] networks = new Network[taskCount];
+        for (int t = 0; t < taskCount; t++) {
+            taskIds[t] = input.readLong();
+            byte[] payload = new byte[input.readInt()];
+            input.readFully(payload);
+            networks[t] = ANNIO.readBinary(new DataInputStream(new ByteArrayInputStream(payload)));
+        }
+
+        output.writeByte(RemoteProtocol.MESSAGE_RESULTS);
+        output.writeInt(taskCount);
+        for (int t = 0; t < taskCount; t++) {
+            output.writeLong(taskIds[t]);
+            output.writeDouble(m_fitnessFunction.evaluate(networks[t]));
+            m_tasksEvaluated++;
+        }
+        output.flush();
+    }
+}
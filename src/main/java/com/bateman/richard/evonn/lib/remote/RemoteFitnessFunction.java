@@ -0,0 +1,15 @@
+package com.bateman.richard.evonn.lib.remote;
+
+import com.bateman.richard.evonn.lib.ann.Network;
+
+/**
+ * A fitness function a {@link FitnessWorker} evaluates networks with.
+ */
+public interface RemoteFitnessFunction {
+    /**
+     * Returns the fitness of the supplied network.
+     * @param network
+     * @return
+     */
+    double evaluate(Network network);
+}
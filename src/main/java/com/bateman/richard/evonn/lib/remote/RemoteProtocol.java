@@ -0,0 +1,39 @@
+package com.bateman.richard.evonn.lib.remote;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The messages exchanged between an {@link EvaluationMaster} and its {@link FitnessWorker}s.
+ *
+ * A worker connects to the master, and both sides send MAGIC and VERSION.  From then on the master sends batches:
+ * MESSAGE_BATCH, the task count, and for each task its id, the length of the network's binary representation
+ * (see ANNIO.writeBinary) and the representation itself.  The worker answers each batch, in order, with
+ * MESSAGE_RESULTS, the task count, and for each task its id and fitness.
+ */
+class RemoteProtocol {
+    static final int MAGIC = 0x45564E4E;
+    static final int VERSION = 1;
+
+    static final byte MESSAGE_BATCH = 1;
+    static final byte MESSAGE_RESULTS = 2;
+
+    /**
+     * The longest a handshake may take, in milliseconds.
+     */
+    static final int HANDSHAKE_TIMEOUT = 10000;
+
+    static void writeHandshake(DataOutputStream output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.flush();
+    }
+
+    static void readHandshake(DataInputStream input) throws IOException {
+        int magic = input.readInt();
+        int version = input.readInt();
+        if (magic != MAGIC) throw new IOException("Not an evaluation protocol peer.");
+        if (version != VERSION) throw new IOException("Unsupported evaluation protocol version: " + version);
+    }
+}
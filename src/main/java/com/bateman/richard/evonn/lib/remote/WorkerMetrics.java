@@ -0,0 +1,81 @@
+package com.bateman.richard.evonn.lib.remote;
+
+/**
+ * A snapshot of the work a single worker connection has done for an {@link EvaluationMaster}.
+ */
+public class WorkerMetrics {
+    private final String m_address;
+    private final boolean m_connected;
+    private final long m_tasksCompleted;
+    private final long m_batchesCompleted;
+    private final long m_bytesSent;
+    private final long m_batchLatencyNanos;
+    private final long m_connectedNanos;
+
+    WorkerMetrics(String address, boolean connected, long tasksCompleted, long batchesCompleted, long bytesSent,
+                  long batchLatencyNanos, long connectedNanos) {
+        m_address = address;
+        m_connected = connected;
+        m_tasksCompleted = tasksCompleted;
+        m_batchesCompleted = batchesCompleted;
+        m_bytesSent = bytesSent;
+        m_batchLatencyNanos = batchLatencyNanos;
+        m_connectedNanos = connectedNanos;
+    }
+
+    /**
+     * The worker's remote address.
+     * @return
+     */
+    public String getAddress() {
+        return m_address;
+    }
+
+    /**
+     * Whether the worker is still connected.
+     * @return
+     */
+    public boolean isConnected() {
+        return m_connected;
+    }
+
+    public long getTasksCompleted() {
+        return m_tasksCompleted;
+    }
+
+    public long getBatchesCompleted() {
+        return m_batchesCompleted;
+    }
+
+    /**
+     * The number of bytes of network representations sent to the worker.
+     * @return
+     */
+    public long getBytesSent() {
+        return m_bytesSent;
+    }
+
+    /**
+     * The mean time from sending a batch to receiving its results, in milliseconds.
+     * Includes the time the batch waited behind earlier batches at the worker.
+     * @return
+     */
+    public double getMeanBatchLatencyMs() {
+        return (m_batchesCompleted == 0) ? 0 : (m_batchLatencyNanos / 1e6) / m_batchesCompleted;
+    }
+
+    /**
+     * The number of tasks completed per second the worker has been connected.
+     * @return
+     */
+    public double getTasksPerSecond() {
+        return (m_connectedNanos == 0) ? 0 : m_tasksCompleted / (m_connectedNanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Worker %s%s: tasks=%d, batches=%d, tasks/s=%.1f, mean batch latency=%.2f ms, bytes sent=%d",
+                m_address, m_connected ? "" : " (lost)", m_tasksCompleted, m_batchesCompleted, getTasksPerSecond(),
+                getMeanBatchLatencyMs(), m_bytesSent);
+    }
+}
@@ -0,0 +1,85 @@
+package com.bateman.richard.math;
+
+/**
+ * Samples indices with probabilities proportional to a set of weights, in constant time per sample, whatever the
+ * number of weights (Walker's alias method, built with Vose's algorithm).
+ *
+ * The table has one column per weight.  Each column holds its own index and, with the remaining probability,
+ * an alias index, so a sample picks a column uniformly and then makes a single biased coin flip.
+ * Building the table is O(n); a table is immutable, so build a new one when the weights change.
+ */
+public class AliasTable {
+    private final double[] m_probability;
+    private final int[] m_alias;
+
+    /**
+     * Builds the table for the supplied weights.
+     * @param weights Non-negative weights, at least one of them positive.
+     */
+    public AliasTable(double[] weights) {
+        int n = weights.length;
+        if (n == 0) throw new IllegalArgumentException("An alias table needs at least one weight.");
+        double total = 0;
+        for (double weight : weights) {
+            if (!(weight >= 0) || Double.isInfinite(weight)) throw new IllegalArgumentException("Invalid weight: " + weight);
+            total += weight;
+        }
+        if (total <= 0) throw new IllegalArgumentException("At least one weight must be positive.");
+
+        m_probability = new double[n];
+        m_alias = new int[n];
+
+        // Scale the weights so they average 1, and split the columns into those under and over the average.
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1) small[smallCount++] = i;
+            else large[largeCount++] = i;
+        }
+
+        // Fill each small column up to 1 with probability taken from a large column.
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            m_probability[less] = scaled[less];
+            m_alias[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1;
+            if (scaled[more] < 1) small[smallCount++] = more;
+            else large[largeCount++] = more;
+        }
+        // Whatever remains is 1, up to rounding.
+        while (largeCount > 0) {
+            int more = large[--largeCount];
+            m_probability[more] = 1;
+            m_alias[more] = more;
+        }
+        while (smallCount > 0) {
+            int less = small[--smallCount];
+            m_probability[less] = 1;
+            m_alias[less] = less;
+        }
+    }
+
+    /**
+     * The number of weights.
+     * @return
+     */
+    public int size() {
+        return m_probability.length;
+    }
+
+    /**
+     * Returns an index from 0 to size() - 1, chosen with probability proportional to its weight.
+     * @return
+     */
+    public int sample() {
+        // One random number picks the column (integer part) and flips its coin (fractional part).
+        double u = RNG.rnd(m_probability.length);
+        int column = (int) u;
+        return (u - column < m_probability[column]) ? column : m_alias[column];
+    }
+}
@@ -0,0 +1,108 @@
+package com.bateman.richard.math;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small, fast, non-cryptographic random number generator (xorshift128+), with Gaussian samples by
+ * Marsaglia's polar method.  An instance is not thread-safe; use {@link #current()} to get the calling thread's
+ * own generator, which needs no synchronization and shares no state between threads.
+ */
+public final class FastRandom {
+    private static final AtomicLong s_seedUniquifier = new AtomicLong(0x5DEECE66DL);
+    private static final ThreadLocal<FastRandom> s_current =
+            ThreadLocal.withInitial(() -> new FastRandom(s_seedUniquifier.addAndGet(0x9E3779B97F4A7C15L) ^ System.nanoTime()));
+
+    private long m_s0;
+    private long m_s1;
+    private double m_nextGaussian;
+    private boolean m_hasNextGaussian;
+
+    /**
+     * Creates a generator with the supplied seed.  Generators with the same seed produce the same sequence.
+     * @param seed
+     */
+    public FastRandom(long seed) {
+        setSeed(seed);
+    }
+
+    /**
+     * The calling thread's generator.
+     * @return
+     */
+    public static FastRandom current() {
+        return s_current.get();
+    }
+
+    /**
+     * Restarts the sequence from the supplied seed.
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        // Expand the seed with splitmix64, so similar seeds give unrelated states, and the state is never all zero.
+        m_s0 = splitMix64(seed);
+        m_s1 = splitMix64(seed + 0x9E3779B97F4A7C15L);
+        if (m_s0 == 0 && m_s1 == 0) m_s1 = 1;
+        m_hasNextGaussian = false;
+    }
+
+    /**
+     * Returns 64 random bits.
+     * @return
+     */
+    public long nextLong() {
+        long s1 = m_s0;
+        long s0 = m_s1;
+        m_s0 = s0;
+        s1 ^= s1 << 23;
+        m_s1 = s1 ^ s0 ^ (s1 >>> 17) ^ (s0 >>> 26);
+        return m_s1 + s0;
+    }
+
+    /**
+     * Returns a random number between 0 (inclusive) and 1.0 (exclusive).
+     * @return
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns a random integer between 0 (inclusive) and bound (exclusive).
+     * @param bound
+     * @return
+     */
+    public int nextInt(int bound) {
+        return (int) (nextDouble() * bound);
+    }
+
+    /**
+     * Returns a sample of the standard normal distribution (mean 0, standard deviation 1).
+     * Samples are generated in pairs, so every other call is nearly free.
+     * @return
+     */
+    public double nextGaussian() {
+        if (m_hasNextGaussian) {
+            m_hasNextGaussian = false;
+            return m_nextGaussian;
+        }
+        double x;
+        double y;
+        double s;
+        do {
+            x = 2 * nextDouble() - 1;
+            y = 2 * nextDouble() - 1;
+            s = x * x + y * y;
+        } while (s >= 1 || s == 0);
+        double scale = Math.sqrt(-2 * Math.log(s) / s);
+        m_nextGaussian = y * scale;
+        m_hasNextGaussian = true;
+        return x * scale;
+    }
+
+    private static long splitMix64(long z) {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -2,15 +2,33 @@ package com.bateman.richard.math;
 
 /**
  * Class for random number generation.
+ * Every thread draws from its own generator (see {@link FastRandom#current()}), so threads never contend, and a
+ * thread's sequence is reproducible once it has been seeded with {@link #setSeed(long)}.
  */
 public class RNG {
 
+    /**
+     * Restarts the calling thread's sequence from the supplied seed.
+     * @param seed
+     */
+    public static void setSeed(long seed) {
+        FastRandom.current().setSeed(seed);
+    }
+
+    /**
+     * Returns 64 random bits, e.g. to seed another thread's sequence.
+     * @return
+     */
+    public static long rndLong() {
+        return FastRandom.current().nextLong();
+    }
+
     /**
      * Returns a random number between 0 (inclusive) and 1.0 (exclusive).
      * @return
      */
     public static double rnd() {
-        return Math.random();
+        return FastRandom.current().nextDouble();
     }
 
     /**
@@ -19,7 +37,7 @@ public class RNG {
      * @return
      */
     public static double rnd(double maxExclusive) {
-        return Math.random() * maxExclusive;
+        return rnd() * maxExclusive;
     }
 
     /**
@@ -0,0 +1,21 @@
+package com.bateman.richard.evonn.lib.ann;
+
+import org.junit.Test;
+
+/**
+ * Checks that the crossovers for identical topologies reject parents whose links do not line up.
+ */
+public class NetworkCrossoverTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void uniformRejectsEqualLinkCountsWithDifferentIds() {
+        Network a = new Network(2, 1);
+        Network b = new Network(2, 1);
+        Network child = new Network(2, 1);
+        // Each network loses one of its three minimal links, so all have two links, but b's do not match a's.
+        a.removeLink(a.getLinksSortedById()[0]);
+        child.removeLink(child.getLinksSortedById()[0]);
+        b.removeLink(b.getLinksSortedById()[1]);
+        NetworkCrossover.uniform(a, b, child);
+    }
+}
@@ -0,0 +1,70 @@
+package com.bateman.richard.evonn.lib.ann;
+
+import com.bateman.richard.math.FastRandom;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link NetworkMutator#mutateWeightsGaussian(double, double, boolean)} at the extremes of the fraction.
+ */
+public class NetworkMutatorTest {
+
+    @Test
+    public void tinyFractionsMutateExactlyOneWeight() {
+        FastRandom.current().setSeed(42);
+        // 1e-8 draws gaps beyond Integer.MAX_VALUE, 1e-17 rounds log(1 - fraction) to 0, and 0 never mutates.
+        double[] fractions = {1e-8, 1e-17, 0};
+        for (double fraction : fractions) {
+            for (int repeat = 0; repeat < 1000; repeat++) {
+                Network network = new Network(4, 3);
+                double[] before = weights(network);
+                network.getMutator().mutateWeightsGaussian(fraction, 0.1, repeat % 2 == 0);
+                assertEquals("Fraction " + fraction, 1, countChanged(before, weights(network)));
+            }
+        }
+    }
+
+    @Test
+    public void fullFractionMutatesEveryWeight() {
+        FastRandom.current().setSeed(43);
+        Network network = new Network(4, 3);
+        double[] before = weights(network);
+        network.getMutator().mutateWeightsGaussian(1, 0.1, false);
+        assertEquals(before.length, countChanged(before, weights(network)));
+    }
+
+    @Test
+    public void fractionSetsExpectedShareOfMutations() {
+        FastRandom.current().setSeed(44);
+        Network network = new Network(20, 10);
+        int changed = 0;
+        int total = 0;
+        for (int repeat = 0; repeat < 200; repeat++) {
+            double[] before = weights(network);
+            network.getMutator().mutateWeightsGaussian(0.1, 0.1, true);
+            changed += countChanged(before, weights(network));
+            total += before.length;
+        }
+        double share = (double) changed / total;
+        assertTrue("Share " + share, share > 0.09 && share < 0.11);
+    }
+
+    private static double[] weights(Network network) {
+        Link[] links = network.getLinksSortedById();
+        double[] weights = new double[links.length];
+        for (int l = 0; l < links.length; l++) {
+            weights[l] = links[l].getWeight();
+        }
+        return weights;
+    }
+
+    private static int countChanged(double[] before, double[] after) {
+        int changed = 0;
+        for (int l = 0; l < before.length; l++) {
+            if (before[l] != after[l]) changed++;
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,128 @@
+package com.bateman.richard.evonn.lib.ann;
+
+import com.bateman.richard.math.RNG;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks the compiled evaluator ({@link Network#computeActivation(ArrayList)}) against the reference evaluator
+ * ({@link Network#computeActivationReference(ArrayList)}).  Both are defined to agree on acyclic networks.
+ */
+public class NetworkTest {
+    private static final double EPSILON = 1e-12;
+
+    /**
+     * Ids for the nodes and links added by hand, well clear of those the innovation registry hands out.
+     */
+    private int m_nextId = 1_000_000;
+
+    @Test
+    public void compiledMatchesReferenceOnDiamond() {
+        // A hidden node feeding both outputs directly, and again through a second hidden node, so the reference
+        // evaluator reaches it along several paths while the compiled evaluator computes it once.
+        Network network = new Network(2, 2);
+        Node shared = addHiddenNode(network);
+        Node second = addHiddenNode(network);
+        addLink(network, network.getNodeBias(), shared, 0.3);
+        addLink(network, network.getNodesInput().get(0), shared, -1.2);
+        addLink(network, network.getNodesInput().get(1), shared, 0.8);
+        addLink(network, shared, second, 1.5);
+        for (Node output : network.getNodesOutput()) {
+            addLink(network, shared, output, -0.7);
+            addLink(network, second, output, 0.9);
+        }
+        assertFalse(network.hasRecurrentLinks());
+
+        double[][] inputs = {{0, 0}, {0, 1}, {1, 0}, {1, 1}, {0.25, -0.5}};
+        for (double[] input : inputs) {
+            assertSameOutputs(network, input);
+        }
+    }
+
+    @Test
+    public void compiledMatchesReferenceOnRandomAcyclicNetworks() {
+        RNG.setSeed(12345);
+        int checked = 0;
+        while (checked < 200) {
+            Network network = new Network(3, 2);
+            network.randomizeWeights();
+            for (int m = 0; m < 12; m++) {
+                if (RNG.rnd() < 0.5) network.getMutator().mutateNewNode();
+                else network.getMutator().mutateNewLink();
+            }
+            if (network.hasRecurrentLinks()) continue;
+            for (int i = 0; i < 5; i++) {
+                assertSameOutputs(network, new double[] {RNG.rnd(), RNG.rnd(), RNG.rnd()});
+            }
+            checked++;
+        }
+    }
+
+    @Test
+    public void minimalNetworkLinkIdsDoNotDependOnIdRange() {
+        // Islands each restrict new ids to a range of their own before creating their initial pool, but their
+        // minimal networks must still agree on the ids of the input to output links, so migrants can be crossed.
+        InnovationRegistry registry = Network.getInnovationRegistry();
+        InnovationRegistry saved = new InnovationRegistry();
+        saved.copyFrom(registry);
+        try {
+            Network before = new Network(3, 2);
+            registry.setIdRange(1 << 24, 2 << 24);
+            Network after = new Network(3, 2);
+            for (int m = 0; m < 10; m++) {
+                after.getMutator().mutateNewNode();
+            }
+            Network later = new Network(3, 2);
+
+            Link[] expected = before.getLinksSortedById();
+            assertEquals(4 * 2, expected.length);
+            for (int k = 0; k < expected.length; k++) {
+                assertEquals(k, expected[k].getId());
+                assertEquals(k, later.getLinksSortedById()[k].getId());
+                assertEquals(expected[k].getNodeIn().getId(), later.getLinksSortedById()[k].getNodeIn().getId());
+                assertEquals(expected[k].getNodeOut().getId(), later.getLinksSortedById()[k].getNodeOut().getId());
+            }
+            for (Link link : after.getMapIdToAllLinks().values()) {
+                boolean minimal = link.getNodeOut().getNodeRole() == Node.NodeRole.OUTPUT &&
+                        link.getNodeIn().getNodeRole() != Node.NodeRole.HIDDEN;
+                assertEquals(minimal, link.getId() < expected.length);
+            }
+        }
+        finally {
+            registry.copyFrom(saved);
+        }
+    }
+
+    private void assertSameOutputs(Network network, double[] input) {
+        ArrayList<Double> inputVector = new ArrayList<>();
+        for (double value : input) {
+            inputVector.add(value);
+        }
+        ArrayList<Double> compiled = network.computeActivation(inputVector);
+        ArrayList<Double> reference = network.computeActivationReference(inputVector);
+        assertEquals(reference.size(), compiled.size());
+        for (int o = 0; o < compiled.size(); o++) {
+            assertEquals("Output " + o + " for input " + Arrays.toString(input), reference.get(o), compiled.get(o), EPSILON);
+        }
+    }
+
+    private Node addHiddenNode(Network network) {
+        Node node = new Node(m_nextId++);
+        node.setNodeRole(Node.NodeRole.HIDDEN);
+        network.addNode(node);
+        return node;
+    }
+
+    private void addLink(Network network, Node from, Node to, double weight) {
+        Link link = new Link(m_nextId++);
+        link.setNodeIn(from);
+        link.setNodeOut(to);
+        link.setWeight(weight);
+        network.addLink(link);
+    }
+}
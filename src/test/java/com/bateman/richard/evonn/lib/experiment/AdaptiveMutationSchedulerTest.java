@@ -0,0 +1,36 @@
+package com.bateman.richard.evonn.lib.experiment;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the scheduler follows the registry's enabled flags, whenever they change.
+ */
+public class AdaptiveMutationSchedulerTest {
+
+    @Test
+    public void operatorDisabledDuringRunStaysDisabled() {
+        MutationOperatorRegistry registry = new MutationOperatorRegistry();
+        int kept = registry.register("KEPT", network -> { }, 1);
+        int disabled = registry.register("DISABLED", network -> { }, 1);
+        AdaptiveMutationScheduler scheduler = new AdaptiveMutationScheduler(registry, 0.9, 0.05, 0.5);
+        scheduler.recordPayoff(kept, 0.1, 1);
+        scheduler.recordPayoff(disabled, 0.5, 1);
+        scheduler.updateWeights();
+
+        registry.setEnabled(disabled, false);
+        double disabledWeight = registry.getWeight(disabled);
+        for (int round = 0; round < 5; round++) {
+            scheduler.recordPayoff(kept, 0.1, 1);
+            scheduler.updateWeights();
+        }
+
+        assertEquals(disabledWeight, registry.getWeight(disabled), 0);
+        for (int draw = 0; draw < 1000; draw++) {
+            assertEquals(kept, registry.choose());
+        }
+        assertTrue(registry.getWeight(kept) > 0);
+    }
+}
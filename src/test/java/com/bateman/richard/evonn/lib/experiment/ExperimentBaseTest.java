@@ -0,0 +1,68 @@
+package com.bateman.richard.evonn.lib.experiment;
+
+import com.bateman.richard.evonn.lib.ann.Network;
+import com.bateman.richard.math.RNG;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks how an experiment finds its fitness function, and the random numbers it hands to the fitness function.
+ */
+public class ExperimentBaseTest {
+
+    private static class NoFitnessExperiment extends ExperimentBase {
+        NoFitnessExperiment(ExperimentConfig config) {
+            initializeWithConfig(config);
+        }
+    }
+
+    private static class ContextFitnessExperiment extends ExperimentBase {
+        ContextFitnessExperiment(ExperimentConfig config) {
+            initializeWithConfig(config);
+        }
+
+        @Override
+        protected void EvaluateFitness(EvaluationContext context) {
+            context.getAgent().setFitnessScore(context.getRandom().nextDouble());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void experimentWithoutEvaluateFitnessFailsToInitialize() {
+        new NoFitnessExperiment(new ExperimentConfig(2, 1));
+    }
+
+    @Test
+    public void experimentOverridingContextEvaluateFitnessInitializes() {
+        new ContextFitnessExperiment(new ExperimentConfig(2, 1));
+    }
+
+    @Test
+    public void contextRandomNumbersDependOnlyOnTheSeed() {
+        ContextFitnessExperiment experiment = new ContextFitnessExperiment(new ExperimentConfig(2, 1));
+        Pool p = new Pool();
+        for (int i = 0; i < 5; i++) {
+            p.getAgentsLive().add(new Agent(new Network(2, 1)));
+        }
+        RNG.setSeed(42);
+        experiment.evaluatePool(p);
+        double[] first = scores(p);
+
+        // The second pass reuses the contexts the first pass created, whose generators have moved on since.
+        RNG.setSeed(42);
+        experiment.evaluatePool(p);
+        double[] second = scores(p);
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(first[i], second[i], 0);
+        }
+    }
+
+    private static double[] scores(Pool p) {
+        double[] scores = new double[p.getAgentsLive().size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = p.getAgentsLive().get(i).getFitnessScore();
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,78 @@
+package com.bateman.richard.evonn.lib.experiment;
+
+import com.bateman.richard.evonn.lib.ann.Network;
+import com.bateman.richard.math.FastRandom;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how successive halving ranks the agents it drops against the agents it evaluates on every sample.
+ */
+public class SuccessiveHalvingTest {
+
+    private static final int SAMPLE_COUNT = 64;
+    private static final double ABORTED_SCORE = 0.1;
+
+    /**
+     * Scores every agent well on a subset of the samples, and aborts every full evaluation with a poor score.
+     */
+    private static class AbortingExperiment extends ExperimentBase {
+        private final IdentityHashMap<Agent, Double> m_subsetScores = new IdentityHashMap<>();
+
+        AbortingExperiment(ExperimentConfig config) {
+            initializeWithConfig(config);
+        }
+
+        @Override
+        protected void EvaluateFitness(Agent a, EvaluationBudget budget) {
+            if (budget.getSampleLimit() < SAMPLE_COUNT) {
+                a.setFitnessScore(m_subsetScores.get(a));
+                budget.recordSamples(budget.getSampleLimit());
+            }
+            else {
+                budget.abort(a, ABORTED_SCORE, 1, SAMPLE_COUNT - 1);
+            }
+        }
+
+        @Override
+        protected int getFitnessSampleCount() {
+            return SAMPLE_COUNT;
+        }
+    }
+
+    @Test
+    public void droppedAgentsRankBelowAbortedSurvivors() {
+        FastRandom.current().setSeed(42);
+        ExperimentConfig config = new ExperimentConfig(2, 1);
+        config.PoolSize = 16;
+        config.EnableSuccessiveHalving = true;
+        AbortingExperiment experiment = new AbortingExperiment(config);
+
+        Pool p = new Pool();
+        for (int i = 0; i < config.PoolSize; i++) {
+            Agent a = new Agent(new Network(2, 1));
+            experiment.m_subsetScores.put(a, 0.5 + i / 100.0);
+            p.getAgentsLive().add(a);
+        }
+        experiment.evaluatePool(p);
+
+        ArrayList<Agent> survivors = new ArrayList<>();
+        ArrayList<Agent> dropped = new ArrayList<>();
+        for (Agent a : p.getAgentsLive()) {
+            if (a.getFitnessScore() == ABORTED_SCORE) survivors.add(a);
+            else dropped.add(a);
+        }
+        assertTrue(!survivors.isEmpty());
+        assertEquals(config.PoolSize, survivors.size() + dropped.size());
+        for (Agent a : dropped) {
+            assertTrue("Dropped agent scored " + a.getFitnessScore(), a.getFitnessScore() < ABORTED_SCORE);
+        }
+        // Neither partial scores nor subset scores measure an agent's real fitness.
+        assertEquals(0, experiment.getBestAgents().size());
+    }
+}